@@ -1,171 +1,3459 @@
 import java.util.*;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.sql.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 public class DiaryManager {
     private static final String DIARY_DIR = "diaries";
+    private static final String INDEX_FILE = "diaries.idx";
+    private static final String DIGEST_FILE = "diaries.sum";
+    private static final String JOURNAL_FILE = "diaries.journal";
+    private static final String DEAD_LETTER_FILE = "diaries.dead";
+    private static final String SEGMENT_DIR = "diaries.seg";
+    // 存储方式：file 每天一个文本文件，segment 追加写入的分段日志
+    private static final String STORAGE_MODE = System.getProperty("diary.storage", "file");
+    // 为 true 时新写入的内容以压缩格式保存（文件、分段和数据库均适用），读取时自动识别
+    private static final boolean COMPRESS = Boolean.getBoolean("diary.compress");
+    // 日记文件统一以 UTF-8 写入；旧版本按平台默认编码写入的文件读取时自动识别
+    private static final Charset FILE_CHARSET = StandardCharsets.UTF_8;
+    private static final Charset LEGACY_CHARSET = Charset.defaultCharset();
+    // 搜索方式：index 优先使用倒排索引，scan 始终并行扫描文件
+    private static final String SEARCH_MODE = System.getProperty("diary.search", "index");
     private static final DateTimeFormatter DATE_FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/diary?useUnicode=true&characterEncoding=utf8&useSSL=false&serverTimezone=Asia/Shanghai";
+    // 可通过 -Ddiary.db.url 指向其他数据库（例如测试用的 H2 MySQL 兼容模式）
+    private static final String DB_URL = System.getProperty("diary.db.url",
+            "jdbc:mysql://localhost:3306/diary?useUnicode=true&characterEncoding=utf8&useSSL=false&serverTimezone=Asia/Shanghai&rewriteBatchedStatements=true");
     private static final String DB_USER = "root";
     private static final String DB_PASSWORD = "iruo1122";
-    private static Connection connection = null;
+    // 建表、重放日志和导入导出等单线程流程使用的连接；其他查询从 DatabaseUtil 的连接集合中借用
+    private static DbConnection db = null;
+    // 列表和搜索每页显示的条数，可用 -Ddiary.pageSize 调整
+    private static final int PAGE_SIZE = Integer.getInteger("diary.pageSize", 20);
 
     /**
      * 数据库操作工具类
      */
     private static class DatabaseUtil {
+        private static final int CONNECTIONS = Integer.getInteger("diary.db.connections", 4);
+        private static final long BORROW_TIMEOUT_MS = 10_000;
+        private static boolean fulltext = false;
+        // 库中是否可能有压缩存储的行（开启了压缩，或启动时检查到已有压缩行）
+        private static boolean compressedRows = false;
+        // 空闲连接；每次操作借出一个，用完归还，借出期间只由借用的线程使用
+        private static final LinkedBlockingQueue<DbConnection> idle = new LinkedBlockingQueue<>();
+
+        /** 分页游标：上一页最后一条的相关度（放大 10^6 后取整）和日期 */
+        record SearchCursor(long score, String date) {}
+
+        /** 一页搜索结果，snippets 与 dates 一一对应；next 为 null 表示没有下一页 */
+        record SearchPage(List<String> dates, List<String> snippets, SearchCursor next) {}
+
         static void init() {
             try {
-                Class.forName("com.mysql.cj.jdbc.Driver");
-                connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-                System.out.println("✅ 数据库连接成功！");
-                createTable();
-            } catch (Exception e) {
-                System.out.println("⚠️ 数据库连接失败，将使用文件模式：" + e.getMessage());
+                if (DB_URL.startsWith("jdbc:mysql:")) Class.forName("com.mysql.cj.jdbc.Driver");
+                DbConnection conn = new DbConnection();
+                conn.get();
+                db = conn;
+                for (int i = 0; i < CONNECTIONS; i++) idle.add(new DbConnection()); // 首次借用时才建立连接
+                System.out.println("✅ 数据库连接成功！");
+                createTable();
+                WriteBehind.replay();
+                WriteBehind.start();
+            } catch (Exception e) {
+                if (db != null) db.reset();
+                db = null;
+                idle.clear();
+                System.out.println("⚠️ 数据库连接失败，将使用文件模式：" + e.getMessage());
+            }
+        }
+
+        /** 运行时在数据库模式和文件模式之间切换，不需要重启 */
+        static void switchMode() {
+            if (isAvailable()) {
+                close();
+                System.out.println("📁 已切换到文件模式");
+            } else {
+                init();
+            }
+        }
+
+        private interface SqlCall<T> {
+            T call(DbConnection conn) throws SQLException;
+        }
+
+        // 借用一个连接执行，不同线程的查询可以并行；连接被服务器断开（如超过 wait_timeout）时重连并重试一次
+        private static <T> T execute(SqlCall<T> call) throws SQLException {
+            DbConnection conn = borrow();
+            try {
+                return call.call(conn);
+            } catch (SQLException e) {
+                if (!DbConnection.isConnectionError(e)) throw e;
+                conn.reset();
+                return call.call(conn);
+            } finally {
+                idle.add(conn);
+            }
+        }
+
+        private static DbConnection borrow() throws SQLException {
+            try {
+                DbConnection conn = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (conn == null) throw new SQLTransientConnectionException("等待空闲数据库连接超时");
+                return conn;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("等待数据库连接时被中断");
+            }
+        }
+
+        private static void createTable() throws SQLException {
+            String sql = "CREATE TABLE IF NOT EXISTS diaries (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                    "diary_date DATE NOT NULL UNIQUE, " +
+                    "content TEXT NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "updated_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3))";
+            try (Statement stmt = db.get().createStatement()) {
+                stmt.execute(sql);
+            }
+            createFulltextIndex();
+            alter("ALTER TABLE diaries ADD COLUMN content_z MEDIUMBLOB NULL", 1060);         // 列已存在
+            alter("ALTER TABLE diaries ADD COLUMN content_hash BIGINT NULL", 1060);
+            alter("CREATE INDEX idx_date_hash ON diaries (diary_date, content_hash)", 1061); // 索引已存在
+            alter("ALTER TABLE diaries ADD COLUMN content_chars INT NULL", 1060);
+            upgradeUpdatedAt();
+            createMonthlyTable();
+            detectCompressedRows();
+        }
+
+        // 没有开启压缩、库中也没有压缩行时，搜索不必再逐行扫描 content_z
+        private static void detectCompressedRows() throws SQLException {
+            if (COMPRESS) { compressedRows = true; return; }
+            try (Statement stmt = db.get().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1 FROM diaries WHERE content_z IS NOT NULL LIMIT 1")) {
+                compressedRows = rs.next();
+            }
+        }
+
+        // updated_at 用作乐观锁版本，旧表只精确到秒，同一秒内的两次修改无法区分，升级为毫秒
+        private static void upgradeUpdatedAt() throws SQLException {
+            Connection conn = db.get();
+            try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, "diaries", "updated_at")) {
+                if (!rs.next() || rs.getInt("COLUMN_SIZE") >= 23) return;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE diaries MODIFY updated_at TIMESTAMP(3) " +
+                        "DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)");
+            }
+        }
+
+        // 每月汇总表，随 saveBatch 在同一事务中按月重算；新建时（或从旧版本升级）从明细重建一次
+        private static void createMonthlyTable() throws SQLException {
+            try (Statement stmt = db.get().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS diary_monthly (" +
+                        "month_start DATE PRIMARY KEY, " +
+                        "entries INT NOT NULL, " +
+                        "chars BIGINT NOT NULL, " +
+                        "first_date DATE NOT NULL, " +
+                        "last_date DATE NOT NULL, " +
+                        "hash_xor BIGINT NOT NULL)");
+                boolean empty;
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM diary_monthly LIMIT 1")) { empty = !rs.next(); }
+                if (!empty) return;
+                Map<YearMonth, MonthSummary> months;
+                try (ResultSet rs = stmt.executeQuery("SELECT diary_date, content_hash, " +
+                        "COALESCE(content_chars, CHAR_LENGTH(content)) AS chars FROM diaries")) {
+                    months = summarize(rs);
+                }
+                for (Map.Entry<YearMonth, MonthSummary> e : months.entrySet()) writeMonth(db, e.getKey(), e.getValue());
+            }
+        }
+
+        private static void alter(String sql, int existsError) throws SQLException {
+            try (Statement stmt = db.get().createStatement()) {
+                stmt.execute(sql);
+            } catch (SQLException e) {
+                if (e.getErrorCode() != existsError) throw e;
+            }
+        }
+
+        // 使用 ngram 解析器建立全文索引，中文内容也能分词；不支持时（如 H2）退回 LIKE 查询
+        private static void createFulltextIndex() {
+            try (Statement stmt = db.get().createStatement()) {
+                stmt.execute("ALTER TABLE diaries ADD FULLTEXT INDEX ft_content (content) WITH PARSER ngram");
+                fulltext = true;
+            } catch (SQLException e) {
+                fulltext = e.getErrorCode() == 1061; // 索引已存在
+                if (!fulltext) System.out.println("⚠️ 当前数据库不支持全文索引，搜索将使用 LIKE 查询");
+            }
+        }
+
+        static void close() {
+            WriteBehind.shutdown(10_000);
+            if (db != null) {
+                try { db.close(); System.out.println("✅ 数据库连接已关闭"); }
+                catch (SQLException e) { System.out.println("❌ 关闭连接失败：" + e.getMessage()); }
+                db = null;
+            }
+            for (DbConnection conn; (conn = idle.poll()) != null; ) conn.reset();
+        }
+
+        static boolean isAvailable() { return db != null; }
+
+        static void save(String date, String content) {
+            if (!isAvailable()) return;
+            try {
+                execute(conn -> { saveBatch(conn, List.of(new WriteBehind.PendingWrite(date, content))); return null; });
+            } catch (SQLException e) {
+                System.out.println("❌ 保存失败：" + e.getMessage());
+            }
+        }
+
+        /** 在一个事务里写入一批日记，连接断开时重试一次 */
+        static void saveAll(List<WriteBehind.PendingWrite> batch) throws SQLException {
+            if (batch.isEmpty()) return;
+            execute(conn -> { saveBatch(conn, batch); return null; });
+        }
+
+        /**
+         * 开启压缩时 content 置空、压缩后的内容写入 content_z；未压缩的行 content_z 为 NULL
+         */
+        private static void bindContent(PreparedStatement pstmt, int index, String content) throws SQLException {
+            if (COMPRESS) {
+                byte[] packed = CompressUtil.compress(content.getBytes(StandardCharsets.UTF_8));
+                pstmt.setString(index, "");
+                pstmt.setBytes(index + 1, packed);
+            } else {
+                pstmt.setString(index, content);
+                pstmt.setNull(index + 1, Types.BLOB);
+            }
+        }
+
+        /** 读取一行的内容，压缩过的行在这里才解压 */
+        static String content(ResultSet rs) throws SQLException {
+            byte[] packed = rs.getBytes("content_z");
+            if (packed == null) return rs.getString("content");
+            try {
+                return StandardCharsets.UTF_8.decode(CompressUtil.decompress(ByteBuffer.wrap(packed))).toString();
+            } catch (IOException e) {
+                throw new SQLException("解压失败：" + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * 在一个事务里批量写入，同一日期只保留最后一次操作；content 为 null 表示删除
+         */
+        static void saveBatch(DbConnection conn, Collection<WriteBehind.PendingWrite> batch) throws SQLException {
+            long start = System.nanoTime();
+            long bytes = 0;
+            Map<String, String> latest = new LinkedHashMap<>();
+            for (WriteBehind.PendingWrite w : batch) { latest.remove(w.date()); latest.put(w.date(), w.content()); }
+
+            PreparedStatement upsert = conn.prepare("INSERT INTO diaries (diary_date, content, content_z, content_hash, content_chars) " +
+                    "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE content = ?, content_z = ?, content_hash = ?, content_chars = ?, " +
+                    "updated_at = CURRENT_TIMESTAMP(3)");
+            PreparedStatement delete = conn.prepare("DELETE FROM diaries WHERE diary_date = ?");
+            conn.get().setAutoCommit(false);
+            try {
+                for (Map.Entry<String, String> e : latest.entrySet()) {
+                    if (e.getValue() == null) {
+                        delete.setDate(1, java.sql.Date.valueOf(e.getKey()));
+                        delete.addBatch();
+                    } else {
+                        String content = e.getValue().trim();
+                        long hash = DigestUtil.hash(e.getKey(), content);
+                        bytes += Metrics.utf8Length(content);
+                        int chars = content.codePointCount(0, content.length());
+                        upsert.setDate(1, java.sql.Date.valueOf(e.getKey()));
+                        bindContent(upsert, 2, content);
+                        upsert.setLong(4, hash);
+                        upsert.setInt(5, chars);
+                        bindContent(upsert, 6, content);
+                        upsert.setLong(8, hash);
+                        upsert.setInt(9, chars);
+                        upsert.addBatch();
+                    }
+                }
+                upsert.executeBatch();
+                delete.executeBatch();
+                Set<YearMonth> touched = new TreeSet<>();
+                for (String date : latest.keySet()) touched.add(YearMonth.from(LocalDate.parse(date)));
+                for (YearMonth month : touched) refreshMonth(conn, month);
+                conn.get().commit();
+                Metrics.DB_WRITE.record(start, bytes);
+            } catch (SQLException e) {
+                Metrics.DB_WRITE.error(start);
+                upsert.clearBatch();
+                delete.clearBatch();
+                try { conn.get().rollback(); } catch (SQLException ignored) {}
+                throw e;
+            } finally {
+                try { conn.get().setAutoCommit(true); } catch (SQLException ignored) {}
+            }
+        }
+
+        /** 乐观锁版本：updated_at 的毫秒数，不存在时返回 0 */
+        static long version(String date) throws SQLException {
+            if (!isAvailable()) return 0;
+            return execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT updated_at FROM diaries WHERE diary_date = ?");
+                pstmt.setDate(1, java.sql.Date.valueOf(date));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) return 0L;
+                    Timestamp updated = rs.getTimestamp(1);
+                    return updated == null ? 1L : updated.getTime();
+                }
+            });
+        }
+
+        static String read(String date) {
+            if (!isAvailable()) return null;
+            long start = System.nanoTime();
+            try {
+                String content = execute(conn -> {
+                    PreparedStatement pstmt = conn.prepare("SELECT content, content_z FROM diaries WHERE diary_date = ?");
+                    pstmt.setDate(1, java.sql.Date.valueOf(date));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? content(rs) : null;
+                    }
+                });
+                Metrics.DB_READ.record(start, content == null ? 0 : Metrics.utf8Length(content));
+                return content;
+            } catch (SQLException e) {
+                Metrics.DB_READ.error(start);
+                System.out.println("❌ 读取失败：" + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * 按相关度分页搜索，after 为 null 时返回第一页
+         * ngram 默认按两个字符切分，少于两个字符的关键词无法命中全文索引，同样使用 LIKE 查询
+         */
+        static SearchPage search(String keyword, SearchCursor after, int limit) {
+            if (!isAvailable()) return new SearchPage(new ArrayList<>(), new ArrayList<>(), null);
+            boolean useFulltext = fulltext && keyword.codePointCount(0, keyword.length()) >= 2;
+            // 摘要在查询里直接截取，不必再逐篇读取内容
+            // 相关度在 SQL 中取整后再排序和比较：浮点数经 JDBC 往返后不一定与库中的值相等，游标处的同分记录会被跳过或重复
+            String snippet = "SUBSTRING(content, GREATEST(1, LOCATE(?, content) - 20), 60) AS snippet";
+            String sql = useFulltext
+                    ? "SELECT diary_date, score, snippet FROM (SELECT diary_date, CAST(ROUND(MATCH(content) AGAINST(? IN BOOLEAN MODE) * 1000000) AS SIGNED) AS score, " +
+                      snippet + " FROM diaries WHERE MATCH(content) AGAINST(? IN BOOLEAN MODE)) t" +
+                      (after == null ? "" : " WHERE score < ? OR (score = ? AND diary_date < ?)") +
+                      " ORDER BY score DESC, diary_date DESC LIMIT ?"
+                    : "SELECT diary_date, 0 AS score, " + snippet + " FROM diaries WHERE content LIKE ?" +
+                      (after == null ? "" : " AND diary_date < ?") +
+                      " ORDER BY diary_date DESC LIMIT ?";
+            long start = System.nanoTime();
+            try {
+                SearchPage page = execute(conn -> {
+                    PreparedStatement pstmt = conn.prepare(sql);
+                    int i = 1;
+                    if (useFulltext) {
+                        String phrase = "\"" + keyword.replace("\"", " ") + "\"";
+                        pstmt.setString(i++, phrase);
+                        pstmt.setString(i++, keyword);
+                        pstmt.setString(i++, phrase);
+                        if (after != null) {
+                            pstmt.setLong(i++, after.score());
+                            pstmt.setLong(i++, after.score());
+                            pstmt.setDate(i++, java.sql.Date.valueOf(after.date()));
+                        }
+                    } else {
+                        pstmt.setString(i++, keyword);
+                        pstmt.setString(i++, "%" + keyword + "%");
+                        if (after != null) pstmt.setDate(i++, java.sql.Date.valueOf(after.date()));
+                    }
+                    pstmt.setInt(i, limit);
+
+                    List<String> dates = new ArrayList<>();
+                    List<String> snippets = new ArrayList<>();
+                    SearchCursor last = null;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            String date = rs.getDate("diary_date").toString();
+                            dates.add(date);
+                            snippets.add(RankUtil.highlight(rs.getString("snippet"), keyword));
+                            last = new SearchCursor(rs.getLong("score"), date);
+                        }
+                    }
+                    return new SearchPage(dates, snippets, dates.size() < limit ? null : last);
+                });
+                Metrics.DB_SEARCH.record(start, 0);
+                return page;
+            } catch (SQLException e) {
+                Metrics.DB_SEARCH.error(start);
+                System.out.println("❌ 搜索失败：" + e.getMessage());
+                return new SearchPage(new ArrayList<>(), new ArrayList<>(), null);
+            }
+        }
+
+        /**
+         * 在压缩存储的行中搜索：流式读取并逐行解压匹配（全文索引和 LIKE 只覆盖未压缩的行），按日期倒序返回命中的日期和摘要；
+         * 没有压缩行时直接返回空结果
+         */
+        static SearchPage searchCompressed(String keyword) {
+            List<String> results = new ArrayList<>();
+            List<String> snippets = new ArrayList<>();
+            if (!isAvailable() || !compressedRows) return new SearchPage(results, snippets, null);
+            byte[] pattern = keyword.toLowerCase().getBytes(StandardCharsets.UTF_8);
+            try {
+                execute(conn -> {
+                    results.clear();
+                    snippets.clear();
+                    try (Statement stmt = conn.get().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        try { stmt.setFetchSize(Integer.MIN_VALUE); } catch (SQLException e) { stmt.setFetchSize(PAGE_SIZE); }
+                        try (ResultSet rs = stmt.executeQuery(
+                                "SELECT diary_date, content_z FROM diaries WHERE content_z IS NOT NULL ORDER BY diary_date DESC")) {
+                            while (rs.next()) {
+                                byte[] packed = rs.getBytes("content_z");
+                                if (!CompressUtil.contains(packed, pattern)) continue;
+                                results.add(rs.getDate("diary_date").toString());
+                                String content = StandardCharsets.UTF_8.decode(CompressUtil.decompress(ByteBuffer.wrap(packed))).toString();
+                                snippets.add(RankUtil.highlight(content, keyword));
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new SQLException(e.getMessage(), e);
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                System.out.println("❌ 搜索失败：" + e.getMessage());
+            }
+            return new SearchPage(results, snippets, null);
+        }
+
+        /**
+         * 按日期倒序取一页：范围 [from, to] 内、早于 before 的最多 limit 条，before 为 null 时从最新开始
+         */
+        static List<LocalDate> listPage(LocalDate from, LocalDate to, LocalDate before, int limit) {
+            List<LocalDate> dates = new ArrayList<>();
+            if (!isAvailable()) return dates;
+            LocalDate upper = before != null && !before.isAfter(to) ? before.minusDays(1) : to;
+            long start = System.nanoTime();
+            try {
+                execute(conn -> {
+                    dates.clear();
+                    PreparedStatement pstmt = conn.prepare(
+                            "SELECT diary_date FROM diaries WHERE diary_date BETWEEN ? AND ? ORDER BY diary_date DESC LIMIT ?");
+                    pstmt.setDate(1, java.sql.Date.valueOf(from));
+                    pstmt.setDate(2, java.sql.Date.valueOf(upper));
+                    pstmt.setInt(3, limit);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) dates.add(rs.getDate("diary_date").toLocalDate());
+                    }
+                    return null;
+                });
+                Metrics.DB_LIST.record(start, 0);
+            } catch (SQLException e) {
+                Metrics.DB_LIST.error(start);
+                System.out.println("❌ 获取列表失败：" + e.getMessage());
+            }
+            return dates;
+        }
+
+        /** 一个月的汇总行 */
+        record MonthSummary(DigestUtil.Rollup rollup, LocalDate first, LocalDate last) {
+            MonthSummary merge(MonthSummary other) {
+                return new MonthSummary(rollup.merge(other.rollup),
+                        first.isBefore(other.first) ? first : other.first, last.isAfter(other.last) ? last : other.last);
+            }
+        }
+
+        // 结果集需包含 diary_date、content_hash、chars 三列
+        private static Map<YearMonth, MonthSummary> summarize(ResultSet rs) throws SQLException {
+            Map<YearMonth, MonthSummary> months = new TreeMap<>();
+            while (rs.next()) {
+                LocalDate date = rs.getDate("diary_date").toLocalDate();
+                DigestUtil.Rollup rollup = new DigestUtil.Rollup(rs.getLong("content_hash"), 1, rs.getLong("chars"));
+                months.merge(YearMonth.from(date), new MonthSummary(rollup, date, date), MonthSummary::merge);
+            }
+            return months;
+        }
+
+        /** 按明细重算一个月的汇总，调用方负责事务 */
+        private static void refreshMonth(DbConnection conn, YearMonth month) throws SQLException {
+            PreparedStatement scan = conn.prepare("SELECT diary_date, content_hash, " +
+                    "COALESCE(content_chars, CHAR_LENGTH(content)) AS chars FROM diaries WHERE diary_date BETWEEN ? AND ?");
+            scan.setDate(1, java.sql.Date.valueOf(month.atDay(1)));
+            scan.setDate(2, java.sql.Date.valueOf(month.atEndOfMonth()));
+            try (ResultSet rs = scan.executeQuery()) {
+                writeMonth(conn, month, summarize(rs).get(month));
+            }
+        }
+
+        private static void writeMonth(DbConnection conn, YearMonth month, MonthSummary summary) throws SQLException {
+            if (summary == null) {
+                PreparedStatement delete = conn.prepare("DELETE FROM diary_monthly WHERE month_start = ?");
+                delete.setDate(1, java.sql.Date.valueOf(month.atDay(1)));
+                delete.executeUpdate();
+                return;
+            }
+            PreparedStatement upsert = conn.prepare("INSERT INTO diary_monthly (month_start, entries, chars, first_date, last_date, hash_xor) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE entries = ?, chars = ?, first_date = ?, last_date = ?, hash_xor = ?");
+            upsert.setDate(1, java.sql.Date.valueOf(month.atDay(1)));
+            for (int i = 2; i <= 7; i += 5) {
+                upsert.setInt(i, summary.rollup().count());
+                upsert.setLong(i + 1, summary.rollup().chars());
+                upsert.setDate(i + 2, java.sql.Date.valueOf(summary.first()));
+                upsert.setDate(i + 3, java.sql.Date.valueOf(summary.last()));
+                upsert.setLong(i + 4, summary.rollup().hash());
+            }
+            upsert.executeUpdate();
+        }
+
+        /** 汇总与明细不一致时（如在程序之外改过表）单独重算某月 */
+        static void refreshMonth(YearMonth month) throws SQLException {
+            execute(conn -> { refreshMonth(conn, month); return null; });
+        }
+
+        /** 每月的条数、字数和内容哈希异或，直接读汇总表，用于对账 */
+        static Map<YearMonth, DigestUtil.Rollup> monthRollups() throws SQLException {
+            Map<YearMonth, DigestUtil.Rollup> rollups = new TreeMap<>();
+            return execute(conn -> {
+                rollups.clear();
+                PreparedStatement pstmt = conn.prepare("SELECT month_start, entries, chars, hash_xor FROM diary_monthly");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        rollups.put(YearMonth.from(rs.getDate("month_start").toLocalDate()),
+                                new DigestUtil.Rollup(rs.getLong("hash_xor"), rs.getInt("entries"), rs.getLong("chars")));
+                    }
+                }
+                return rollups;
+            });
+        }
+
+        /**
+         * 一段日期内的统计：整月部分读汇总表，首尾不足一个月的部分查明细，总开销与月数成正比
+         */
+        static DigestUtil.RangeStats stats(UIUtil.DateRange range) throws SQLException {
+            DigestUtil.RangeStats total = DigestUtil.RangeStats.EMPTY;
+            YearMonth first = range.firstFullMonth(), last = range.lastFullMonth();
+            if (!first.isAfter(last)) {
+                total = execute(conn -> {
+                    PreparedStatement pstmt = conn.prepare("SELECT SUM(entries) AS entries, SUM(chars) AS chars, " +
+                            "MIN(first_date) AS first_date, MAX(last_date) AS last_date FROM diary_monthly WHERE month_start BETWEEN ? AND ?");
+                    pstmt.setDate(1, java.sql.Date.valueOf(first.atDay(1)));
+                    pstmt.setDate(2, java.sql.Date.valueOf(last.atDay(1)));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? rangeStats(rs) : DigestUtil.RangeStats.EMPTY;
+                    }
+                });
+            }
+            for (UIUtil.DateRange edge : range.partialEdges()) total = total.plus(partialStats(edge));
+            return total;
+        }
+
+        private static DigestUtil.RangeStats partialStats(UIUtil.DateRange range) throws SQLException {
+            return execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT COUNT(*) AS entries, SUM(COALESCE(content_chars, CHAR_LENGTH(content))) AS chars, " +
+                        "MIN(diary_date) AS first_date, MAX(diary_date) AS last_date FROM diaries WHERE diary_date BETWEEN ? AND ?");
+                pstmt.setDate(1, java.sql.Date.valueOf(range.from()));
+                pstmt.setDate(2, java.sql.Date.valueOf(range.to()));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rangeStats(rs) : DigestUtil.RangeStats.EMPTY;
+                }
+            });
+        }
+
+        private static DigestUtil.RangeStats rangeStats(ResultSet rs) throws SQLException {
+            int entries = rs.getInt("entries");
+            if (entries == 0) return DigestUtil.RangeStats.EMPTY;
+            return new DigestUtil.RangeStats(entries, rs.getLong("chars"),
+                    rs.getDate("first_date").toLocalDate(), rs.getDate("last_date").toLocalDate());
+        }
+
+        /** 范围内每月的统计，首尾不足一个月的按实际范围计算 */
+        static Map<YearMonth, DigestUtil.RangeStats> monthly(UIUtil.DateRange range) throws SQLException {
+            Map<YearMonth, DigestUtil.RangeStats> months = new TreeMap<>();
+            execute(conn -> {
+                months.clear();
+                PreparedStatement pstmt = conn.prepare("SELECT month_start, entries, chars, first_date, last_date " +
+                        "FROM diary_monthly WHERE month_start BETWEEN ? AND ?");
+                pstmt.setDate(1, java.sql.Date.valueOf(YearMonth.from(range.from()).atDay(1)));
+                pstmt.setDate(2, java.sql.Date.valueOf(YearMonth.from(range.to()).atDay(1)));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) months.put(YearMonth.from(rs.getDate("month_start").toLocalDate()), rangeStats(rs));
+                }
+                return null;
+            });
+            for (UIUtil.DateRange edge : range.partialEdges()) {
+                YearMonth month = YearMonth.from(edge.from());
+                if (!months.containsKey(month)) continue;
+                DigestUtil.RangeStats partial = partialStats(edge);
+                if (partial.entries() == 0) months.remove(month);
+                else months.put(month, partial);
+            }
+            return months;
+        }
+
+        /** 某月每篇日记的内容哈希，旧数据没有哈希时为 null */
+        static Map<LocalDate, Long> monthHashes(YearMonth month) throws SQLException {
+            Map<LocalDate, Long> hashes = new TreeMap<>();
+            return execute(conn -> {
+                hashes.clear();
+                PreparedStatement pstmt = conn.prepare(
+                        "SELECT diary_date, content_hash FROM diaries WHERE diary_date BETWEEN ? AND ?");
+                pstmt.setDate(1, java.sql.Date.valueOf(month.atDay(1)));
+                pstmt.setDate(2, java.sql.Date.valueOf(month.atEndOfMonth()));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long hash = rs.getLong("content_hash");
+                        hashes.put(rs.getDate("diary_date").toLocalDate(), rs.wasNull() ? null : hash);
+                    }
+                }
+                return hashes;
+            });
+        }
+    }
+
+    /**
+     * 受管数据库连接
+     * 缓存固定的几条预编译语句；空闲一段时间后先用 isValid 检查，连接失效时自动重连并重建语句缓存。
+     * 每个实例同一时间只能由一个线程使用：后台写入线程独占一个，其余由 DatabaseUtil 按次借出。
+     */
+    private static class DbConnection {
+        private static final long VALIDATE_AFTER_MS = 30_000;
+
+        private Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed;
+
+        Connection get() throws SQLException {
+            long now = System.currentTimeMillis();
+            if (conn != null && now - lastUsed > VALIDATE_AFTER_MS && !conn.isValid(2)) reset();
+            if (conn == null || conn.isClosed()) {
+                statements.clear();
+                conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            }
+            lastUsed = now;
+            return conn;
+        }
+
+        /** 返回缓存的预编译语句，调用方不要关闭它 */
+        PreparedStatement prepare(String sql) throws SQLException {
+            Connection c = get();
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt == null || pstmt.isClosed()) {
+                pstmt = c.prepareStatement(sql);
+                statements.put(sql, pstmt);
+            }
+            return pstmt;
+        }
+
+        /** 丢弃当前连接，下次使用时重新连接 */
+        void reset() {
+            try { close(); } catch (SQLException ignored) {}
+        }
+
+        void close() throws SQLException {
+            for (PreparedStatement pstmt : statements.values()) {
+                try { pstmt.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+            Connection old = conn;
+            conn = null;
+            if (old != null) old.close();
+        }
+
+        static boolean isConnectionError(SQLException e) {
+            return e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException ||
+                    (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+        }
+    }
+
+    /**
+     * 数据库异步写入队列
+     * 文件写入成功即向用户确认，数据库的写入和删除先追加到本地日志（diaries.journal），
+     * 再由后台线程使用独立连接分批提交，连接类错误时退避重试；未完成的操作在下次启动时由 DatabaseUtil.init 重放。
+     * 其他错误（如内容超长、约束冲突）重试也不会成功：整批失败时逐条重新提交，仍然失败的操作
+     * 移到 diaries.dead 并从日志中删除，不阻塞后面的写入。
+     */
+    private static class WriteBehind {
+        private static final int BATCH_SIZE = 50;
+        private static final long MAX_BACKOFF_MS = 30_000;
+
+        record PendingWrite(String date, String content) {}
+
+        private static final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+        private static final Object lock = new Object();
+        private static int inFlight = 0;
+        private static int journalRecords = 0;
+        private static Thread worker;
+
+        static void start() {
+            worker = new Thread(WriteBehind::run, "diary-write-behind");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        static void submitSave(String date, String content) { submit(new PendingWrite(date, content)); }
+
+        static void submitDelete(String date) { submit(new PendingWrite(date, null)); }
+
+        private static void submit(PendingWrite write) {
+            synchronized (lock) {
+                append(write);
+                queue.add(write);
+            }
+        }
+
+        private static void run() {
+            DbConnection conn = new DbConnection();
+            List<PendingWrite> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    synchronized (lock) {
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        inFlight = batch.size();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                long backoff = 500;
+                int submitted = batch.size();
+                while (true) {
+                    try {
+                        deliver(conn, batch);
+                        break;
+                    } catch (SQLException e) {
+                        System.out.println("\n⚠️ 数据库同步失败，" + backoff / 1000.0 + " 秒后重试：" + e.getMessage());
+                        conn.reset();
+                        try { Thread.sleep(backoff); } catch (InterruptedException ie) { conn.reset(); return; }
+                        backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                    }
+                }
+
+                synchronized (lock) {
+                    inFlight = 0;
+                    boolean dropped = batch.size() < submitted;
+                    batch.clear();
+                    // 已停止时队列已清空，剩余操作只保存在日志里，不能截断
+                    if (worker != Thread.currentThread()) break;
+                    if (queue.isEmpty()) truncate();
+                    else if (dropped || journalRecords > BATCH_SIZE * 20) rewrite();
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        // 连接中断、锁等待超时等重试可能成功的错误
+        private static boolean retryable(SQLException e) {
+            return DbConnection.isConnectionError(e) || e instanceof SQLTransientException;
+        }
+
+        /**
+         * 提交一批操作；不可重试的错误按条隔离，失败的操作移到死信文件并从 batch 中删除。
+         * 可重试的错误抛给调用方退避后重来（已成功的单条重复写入结果相同）
+         */
+        private static void deliver(DbConnection conn, List<PendingWrite> batch) throws SQLException {
+            try {
+                DatabaseUtil.saveBatch(conn, batch);
+                return;
+            } catch (SQLException e) {
+                if (retryable(e)) throw e;
+                if (batch.size() == 1) {
+                    deadLetter(batch.get(0), e);
+                    batch.clear();
+                    return;
+                }
+            }
+            for (PendingWrite write : new ArrayList<>(batch)) {
+                List<PendingWrite> single = new ArrayList<>(List.of(write));
+                deliver(conn, single);
+                if (single.isEmpty()) batch.remove(write);
+            }
+        }
+
+        private static void deadLetter(PendingWrite write, SQLException e) {
+            System.out.println("\n❌ " + write.date() + " 的" + (write.content() == null ? "删除" : "写入") +
+                    "无法同步到数据库，已移到 " + DEAD_LETTER_FILE + "：" + e.getMessage());
+            String line = Instant.now() + "\t" + record(write) + "\t" + String.valueOf(e.getMessage()).replaceAll("\\s+", " ");
+            try (FileOutputStream out = new FileOutputStream(DEAD_LETTER_FILE, true)) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.getChannel().force(false);
+            } catch (IOException io) {
+                System.out.println("⚠️ 写入死信文件失败：" + io.getMessage());
+            }
+        }
+
+        /**
+         * 启动时重放日志中尚未写入数据库的操作
+         */
+        static void replay() {
+            List<PendingWrite> pending = new ArrayList<>();
+            File file = new File(JOURNAL_FILE);
+            if (!file.exists()) return;
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts[0].equals("U") && parts.length == 3) {
+                        String content = new String(Base64.getDecoder().decode(parts[2]), StandardCharsets.UTF_8);
+                        pending.add(new PendingWrite(parts[1], content));
+                    } else if (parts[0].equals("D") && parts.length == 2) {
+                        pending.add(new PendingWrite(parts[1], null));
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // 最后一行可能在崩溃时只写了一半，已读出的部分照常重放
+                System.out.println("⚠️ 同步日志读取不完整：" + e.getMessage());
+            }
+            if (pending.isEmpty()) { truncate(); return; }
+
+            try {
+                DatabaseUtil.saveBatch(db, pending);
+                truncate();
+                System.out.println("✅ 已补写 " + pending.size() + " 条未同步到数据库的操作");
+            } catch (SQLException e) {
+                // 保留日志，交给后台线程继续重试
+                synchronized (lock) { queue.addAll(pending); journalRecords = pending.size(); }
+                System.out.println("⚠️ 补写未同步操作失败，将在后台重试：" + e.getMessage());
+            }
+        }
+
+        /**
+         * 等待队列中的操作全部提交，返回是否在超时前完成
+         */
+        static boolean awaitIdle(long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            synchronized (lock) {
+                while (worker != null && (!queue.isEmpty() || inFlight > 0)) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) return false;
+                    try { lock.wait(wait); } catch (InterruptedException e) { return false; }
+                }
+                return queue.isEmpty() && inFlight == 0;
+            }
+        }
+
+        /**
+         * 等待队列清空，超时后未完成的操作留在日志中
+         */
+        static void shutdown(long timeoutMs) {
+            if (worker == null) return;
+            synchronized (lock) {
+                awaitIdle(timeoutMs);
+                int left = queue.size() + inFlight;
+                if (left > 0) System.out.println("⚠️ 还有 " + left + " 条操作未同步到数据库，将在下次连接时补写");
+                // 未完成的操作都在日志中，重新连接时由 replay 重放
+                queue.clear();
+                worker.interrupt();
+                worker = null;
+                lock.notifyAll();
+            }
+        }
+
+        private static String record(PendingWrite write) {
+            return write.content() == null ? "D\t" + write.date()
+                    : "U\t" + write.date() + "\t" + Base64.getEncoder().encodeToString(write.content().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void append(PendingWrite write) {
+            try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, true)) {
+                out.write((record(write) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.getChannel().force(false);
+                journalRecords++;
+            } catch (IOException e) {
+                System.out.println("⚠️ 写入同步日志失败：" + e.getMessage());
+            }
+        }
+
+        private static void truncate() {
+            try {
+                Files.deleteIfExists(Paths.get(JOURNAL_FILE));
+                journalRecords = 0;
+            } catch (IOException e) {
+                System.out.println("⚠️ 清理同步日志失败：" + e.getMessage());
+            }
+        }
+
+        // 日志只保留仍在队列中的操作，先写临时文件再替换
+        private static void rewrite() {
+            Path tmp = Paths.get(JOURNAL_FILE + ".tmp");
+            try {
+                Files.deleteIfExists(tmp);
+                List<PendingWrite> remaining = new ArrayList<>(queue);
+                Files.move(Paths.get(JOURNAL_FILE), tmp, StandardCopyOption.REPLACE_EXISTING);
+                journalRecords = 0;
+                remaining.forEach(WriteBehind::append);
+                Files.delete(tmp);
+            } catch (IOException e) {
+                System.out.println("⚠️ 整理同步日志失败：" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 批量导入导出工具类
+     * import：并行解析 diaries/ 中的文件，去掉保存时添加的日期标题，按块批量写入数据库，每块一个事务；
+     * export：以流式结果集逐行读出数据库中的日记，交给若干写入线程写成文件并开启组提交，
+     * 同一批写入共用一次目录刷盘；排队的条数有上限，内存占用与日记总数无关。
+     */
+    private static class TransferUtil {
+        private static final int CHUNK_SIZE = 500;
+        private static final int EXPORT_WRITERS = Integer.getInteger("diary.export.writers", 8);
+
+        static void importFiles() {
+            if (!DatabaseUtil.isAvailable()) {
+                System.out.println("❌ 数据库不可用，无法导入"); return;
+            }
+            List<LocalDate> dates = new ArrayList<>(CatalogUtil.dates());
+            if (dates.isEmpty()) {
+                System.out.println("📭 没有可导入的日记"); return;
+            }
+
+            long start = System.currentTimeMillis();
+            int imported = 0;
+            // 当前块写入数据库的同时，并行解析下一块
+            CompletableFuture<List<WriteBehind.PendingWrite>> next = parseAsync(dates, 0);
+            for (int from = 0; from < dates.size(); from += CHUNK_SIZE) {
+                List<WriteBehind.PendingWrite> chunk = next.join();
+                if (from + CHUNK_SIZE < dates.size()) next = parseAsync(dates, from + CHUNK_SIZE);
+                try {
+                    DatabaseUtil.saveBatch(db, chunk);
+                    imported += chunk.size();
+                    System.out.println("📥 已导入 " + imported + " / " + dates.size());
+                } catch (SQLException e) {
+                    System.out.println("❌ 导入失败（第 " + (from + 1) + " 篇起的一批已回滚）：" + e.getMessage());
+                    return;
+                }
+            }
+            System.out.println("✅ 导入完成，共 " + imported + " 篇，用时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        private static CompletableFuture<List<WriteBehind.PendingWrite>> parseAsync(List<LocalDate> dates, int from) {
+            List<LocalDate> chunk = dates.subList(from, Math.min(from + CHUNK_SIZE, dates.size()));
+            return CompletableFuture.supplyAsync(() -> chunk.parallelStream()
+                    .map(date -> parse(date.toString()))
+                    .filter(Objects::nonNull)
+                    .toList());
+        }
+
+        private static WriteBehind.PendingWrite parse(String date) {
+            try {
+                String content = FileUtil.read(date);
+                if (content == null) return null;
+                content = FileUtil.body(content);
+                return content.isEmpty() ? null : new WriteBehind.PendingWrite(date, content);
+            } catch (IOException e) {
+                System.out.println("❌ 读取失败：" + FileUtil.locate(date));
+                return null;
+            }
+        }
+
+        static void exportFiles() {
+            if (!DatabaseUtil.isAvailable()) {
+                System.out.println("❌ 数据库不可用，无法导出"); return;
+            }
+            long start = System.currentTimeMillis();
+            AtomicInteger exported = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            String error = null;
+            // 只在导出期间开启组提交，结束后恢复，不影响之后的其他操作
+            boolean groupCommit = GroupCommit.enabled;
+            if (System.getProperty("diary.groupCommit") == null) GroupCommit.enabled = true;
+            ExecutorService writers = Executors.newFixedThreadPool(EXPORT_WRITERS);
+            Semaphore inFlight = new Semaphore(EXPORT_WRITERS * 4);
+            try (Statement stmt = db.get().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                try {
+                    stmt.setFetchSize(Integer.MIN_VALUE); // MySQL 驱动逐行流式读取
+                } catch (SQLException e) {
+                    stmt.setFetchSize(CHUNK_SIZE);
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT diary_date, content, content_z FROM diaries")) {
+                    while (rs.next()) {
+                        String date = rs.getDate("diary_date").toString();
+                        String content = DatabaseUtil.content(rs);
+                        inFlight.acquireUninterruptibly();
+                        writers.execute(() -> {
+                            try {
+                                if (!FileUtil.save(date, content, true)) { failed.incrementAndGet(); return; }
+                                int done = exported.incrementAndGet();
+                                if (done % CHUNK_SIZE == 0) System.out.println("📤 已导出 " + done + " 篇");
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                }
+            } catch (SQLException e) {
+                error = e.getMessage();
+            } finally {
+                writers.shutdown();
+                try {
+                    writers.awaitTermination(1, TimeUnit.HOURS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                GroupCommit.enabled = groupCommit;
+            }
+            if (error != null) {
+                System.out.println("❌ 导出中断，已写出 " + exported.get() + " 篇：" + error); return;
+            }
+            if (failed.get() > 0) {
+                System.out.println("❌ 导出未完成：" + failed.get() + " 篇写入失败，成功 " + exported.get() + " 篇"); return;
+            }
+            System.out.println("✅ 导出完成，共 " + exported.get() + " 篇，用时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 文件与数据库对账工具类
+     * 先比较每月汇总（条数 + 内容哈希异或），只有汇总不同的月份才逐篇比较哈希：
+     * 内容不同或只在文件中的日记以文件为准写入数据库（文件写入成功才向用户确认），
+     * 只在数据库中的日记恢复为文件。
+     */
+    private static class SyncUtil {
+        /** 一个月内需要修复的日期 */
+        record MonthDiff(YearMonth month, List<String> toDb, List<String> toFile) {}
+
+        /** 找出不一致的月份，数据库不可用时返回 null */
+        static List<MonthDiff> diff() {
+            if (!DatabaseUtil.isAvailable()) return null;
+            // 队列里尚未提交的写入会被当作不一致，先等它们写完
+            if (!WriteBehind.awaitIdle(10_000)) System.out.println("⚠️ 还有操作未同步完成，结果可能包含这些日记");
+            try {
+                Map<YearMonth, DigestUtil.Rollup> local = DigestUtil.months();
+                Map<YearMonth, DigestUtil.Rollup> remote = DatabaseUtil.monthRollups();
+                TreeSet<YearMonth> months = new TreeSet<>(local.keySet());
+                months.addAll(remote.keySet());
+
+                List<MonthDiff> diffs = new ArrayList<>();
+                for (YearMonth month : months) {
+                    DigestUtil.Rollup rollup = local.get(month);
+                    if (rollup != null && rollup.sameEntries(remote.get(month))) continue;
+                    Map<LocalDate, Long> files = DigestUtil.month(month);
+                    Map<LocalDate, Long> rows = DatabaseUtil.monthHashes(month);
+                    List<String> toDb = new ArrayList<>();
+                    List<String> toFile = new ArrayList<>();
+                    files.forEach((date, hash) -> { if (!hash.equals(rows.get(date))) toDb.add(date.toString()); });
+                    rows.keySet().forEach(date -> { if (!files.containsKey(date)) toFile.add(date.toString()); });
+                    // 逐篇都一致说明只是数据库的月汇总过时了，修复时重算汇总即可
+                    diffs.add(new MonthDiff(month, toDb, toFile));
+                }
+                return diffs;
+            } catch (SQLException e) {
+                System.out.println("❌ 对账失败：" + e.getMessage());
+                return null;
+            }
+        }
+
+        /** 修复 diff 找出的差异，返回修复的篇数 */
+        static int repair(List<MonthDiff> diffs) {
+            int repaired = 0;
+            for (MonthDiff diff : diffs) {
+                List<WriteBehind.PendingWrite> batch = new ArrayList<>();
+                for (String date : diff.toDb()) {
+                    try {
+                        String content = FileUtil.read(date);
+                        if (content != null) batch.add(new WriteBehind.PendingWrite(date, FileUtil.body(content)));
+                    } catch (IOException e) {
+                        System.out.println("❌ 读取失败：" + FileUtil.locate(date));
+                    }
+                }
+                // 读取失败的日期没有放进批次，只统计实际写入的篇数
+                int toDb = batch.size();
+                for (String date : diff.toFile()) {
+                    String content = DatabaseUtil.read(date);
+                    if (content == null || !restore(date, content)) continue;
+                    // 旧数据可能没有哈希，顺便补上
+                    batch.add(new WriteBehind.PendingWrite(date, content));
+                    repaired++;
+                }
+                try {
+                    if (batch.isEmpty()) DatabaseUtil.refreshMonth(diff.month());
+                    DatabaseUtil.saveAll(batch);
+                    repaired += toDb;
+                } catch (SQLException e) {
+                    System.out.println("❌ " + diff.month() + " 写入数据库失败：" + e.getMessage());
+                }
+            }
+            return repaired;
+        }
+
+        // 与 LockUtil.save 使用同一把日期锁；对账期间文件已被重新写入时以文件为准，不再覆盖
+        private static boolean restore(String date, String content) {
+            ReentrantLock lock = LockUtil.of(date);
+            lock.lock();
+            try {
+                return !CatalogUtil.contains(date) && FileUtil.save(date, content, true);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        static void print(List<MonthDiff> diffs) {
+            for (MonthDiff diff : diffs) {
+                if (diff.toDb().isEmpty() && diff.toFile().isEmpty()) System.out.printf("  %s：月汇总需重算%n", diff.month());
+                else System.out.printf("  %s：%d 篇需写入数据库，%d 篇需恢复为文件%n",
+                        diff.month(), diff.toDb().size(), diff.toFile().size());
+            }
+        }
+
+        /** 命令行 sync：检查并直接修复 */
+        static void run() {
+            long start = System.currentTimeMillis();
+            List<MonthDiff> diffs = diff();
+            if (diffs == null) { System.out.println("❌ 数据库不可用，无法对账"); return; }
+            if (diffs.isEmpty()) {
+                System.out.println("✅ 文件与数据库一致，用时 " + (System.currentTimeMillis() - start) + "ms"); return;
+            }
+            print(diffs);
+            System.out.println("✅ 已修复 " + repair(diffs) + " 篇，用时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 压缩工具类
+     * 使用 Deflate 加预置字典：字典收录日期标题、分隔线和日记里的常见词句，短文本也能有不错的压缩率。
+     * 压缩数据以 "DZ" 和字典版本号开头，读取时按此识别，未压缩的旧数据照常读取。
+     */
+    private static class CompressUtil {
+        private static final byte[] MAGIC = {'D', 'Z', 1};
+        // 修改字典内容时必须同时提升 MAGIC 中的版本号，否则旧数据无法解压
+        private static final byte[] DICTIONARY = (
+                "今天 昨天 明天 早上 上午 中午 下午 晚上 天气 晴 多云 下雨 心情 开心 难过 累 工作 学习 上班 下班 " +
+                "朋友 家人 吃饭 睡觉 周末 电影 读书 运动 跑步 计划 总结 感觉 觉得 因为 所以 但是 然后 还是 一起 " +
+                "the and was today with that have for this went about really good work home time day\n" +
+                "════════════════════════════════════════\n📅 日期：").getBytes(StandardCharsets.UTF_8);
+
+        static byte[] compress(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setDictionary(DICTIONARY);
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+                out.write(MAGIC, 0, MAGIC.length);
+                byte[] chunk = new byte[4096];
+                while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        static boolean isCompressed(ByteBuffer buffer) {
+            if (buffer.remaining() < MAGIC.length) return false;
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+            }
+            return true;
+        }
+
+        static ByteBuffer decompress(ByteBuffer buffer) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.remaining() * 3);
+            inflate(buffer, (chunk, length) -> { out.write(chunk, 0, length); return false; });
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+
+        /**
+         * 边解压边查找已转为小写的 UTF-8 字节序列，不必先还原出整篇内容
+         */
+        static boolean contains(byte[] packed, byte[] pattern) throws IOException {
+            byte[] window = new byte[8192 + pattern.length];
+            int[] kept = {0};
+            return inflate(ByteBuffer.wrap(packed), (chunk, length) -> {
+                // 保留上一块末尾的 pattern.length - 1 个字节，跨块的匹配也能找到
+                System.arraycopy(chunk, 0, window, kept[0], length);
+                int total = kept[0] + length;
+                if (ScanUtil.indexOf(ByteBuffer.wrap(window, 0, total), pattern) >= 0) return true;
+                kept[0] = Math.min(pattern.length - 1, total);
+                System.arraycopy(window, total - kept[0], window, 0, kept[0]);
+                return false;
+            });
+        }
+
+        private interface ChunkSink {
+            /** 返回 true 表示可以提前结束 */
+            boolean accept(byte[] chunk, int length) throws IOException;
+        }
+
+        private static boolean inflate(ByteBuffer buffer, ChunkSink sink) throws IOException {
+            if (!isCompressed(buffer)) throw new IOException("不是压缩数据");
+            ByteBuffer input = buffer.duplicate();
+            input.position(input.position() + MAGIC.length);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(input);
+                byte[] chunk = new byte[8192];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(chunk);
+                    if (n == 0) {
+                        if (inflater.needsDictionary()) { inflater.setDictionary(DICTIONARY); continue; }
+                        if (inflater.needsInput()) throw new EOFException("压缩数据不完整");
+                    }
+                    if (n > 0 && sink.accept(chunk, n)) return true;
+                }
+                return false;
+            } catch (DataFormatException e) {
+                throw new IOException("压缩数据已损坏：" + e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 日记内容缓存
+     * 按最近最少使用淘汰，容量按字节计算（默认 4MB，可用 -Ddiary.cache.bytes 调整），
+     * 保存、删除和外部修改时失效。
+     * 每次失效都会推进代数，读取开始后发生过失效的结果不再放入缓存，避免旧内容在写入后被放回。
+     */
+    private static class ContentCache {
+        private static final long MAX_BYTES = Long.getLong("diary.cache.bytes", 4L * 1024 * 1024);
+        // 每个条目除字符数据外的大致开销（键、链表节点、String 对象头）
+        private static final int ENTRY_OVERHEAD = 96;
+
+        private record Key(String date, boolean preview) {}
+
+        private static final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private static long bytes = 0;
+        private static long generation = 0;
+
+        /** 读取磁盘前取得当前代数，放入缓存时原样传回 */
+        static synchronized long generation() {
+            return generation;
+        }
+
+        static synchronized String get(String date, boolean preview) {
+            return entries.get(new Key(date, preview));
+        }
+
+        static synchronized void put(String date, boolean preview, String value, long readAt) {
+            long weight = weigh(value);
+            if (weight > MAX_BYTES || readAt != generation) return;
+            String old = entries.put(new Key(date, preview), value);
+            if (old != null) bytes -= weigh(old);
+            bytes += weight;
+            Iterator<String> eldest = entries.values().iterator();
+            while (bytes > MAX_BYTES && eldest.hasNext()) {
+                bytes -= weigh(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        static synchronized void invalidate(String date) {
+            generation++;
+            for (boolean preview : new boolean[]{false, true}) {
+                String old = entries.remove(new Key(date, preview));
+                if (old != null) bytes -= weigh(old);
+            }
+        }
+
+        private static long weigh(String value) {
+            return ENTRY_OVERHEAD + 2L * value.length();
+        }
+    }
+
+    /**
+     * 组提交工具类
+     * 每次写入都要等到数据落盘才返回；开启组提交后，并发写入者排队，由第一个到达的线程（领头者）
+     * 一次处理队列中的全部请求：依次完成各自的收尾动作（如原子改名），然后对涉及的目录或分段只刷一次盘，
+     * 其余线程等待领头者完成后直接返回。单线程写入时与逐条刷盘相同。
+     * 通过 -Ddiary.groupCommit=true 开启，export 和 serve 默认开启（可用 -Ddiary.groupCommit=false 关闭）。
+     */
+    private static class GroupCommit {
+        interface IoTask { void run() throws IOException; }
+
+        private static final class Request {
+            final IoTask task;
+            final Object target;
+            IOException error;
+            boolean done;
+
+            Request(IoTask task, Object target) {
+                this.task = task;
+                // 同一目录可能以相对和绝对路径两种形式提交，统一后批内才能去重，只刷一次
+                this.target = target instanceof Path path ? path.toAbsolutePath().normalize() : target;
+            }
+        }
+
+        static volatile boolean enabled = Boolean.getBoolean("diary.groupCommit");
+        private static final Object lock = new Object();
+        private static List<Request> pending = new ArrayList<>();
+        private static boolean leading = false;
+
+        /**
+         * 执行 task 后对 target 刷盘：Path 表示目录（使改名和删除持久化），FileChannel 表示分段文件
+         */
+        static void commit(IoTask task, Object target) throws IOException {
+            if (!enabled) {
+                task.run();
+                sync(target);
+                return;
+            }
+            Request request = new Request(task, target);
+            List<Request> batch;
+            synchronized (lock) {
+                pending.add(request);
+                while (leading && !request.done) awaitUninterruptibly();
+                if (request.done) {
+                    if (request.error != null) throw request.error;
+                    return;
+                }
+                leading = true;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            try {
+                flush(batch);
+            } finally {
+                synchronized (lock) {
+                    for (Request r : batch) r.done = true;
+                    leading = false;
+                    lock.notifyAll();
+                }
+            }
+            if (request.error != null) throw request.error;
+        }
+
+        private static void flush(List<Request> batch) {
+            Set<Object> targets = new LinkedHashSet<>();
+            for (Request r : batch) {
+                try {
+                    r.task.run();
+                    targets.add(r.target);
+                } catch (IOException e) {
+                    r.error = e;
+                }
+            }
+            Map<Object, IOException> failed = new HashMap<>();
+            for (Object target : targets) {
+                try { sync(target); } catch (IOException e) { failed.put(target, e); }
+            }
+            for (Request r : batch) {
+                if (r.error == null && failed.containsKey(r.target)) r.error = failed.get(r.target);
+            }
+        }
+
+        // 调用方只等待已排队请求完成，不响应中断，避免返回时写入状态不明
+        private static void awaitUninterruptibly() {
+            boolean interrupted = false;
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        static void sync(Object target) throws IOException {
+            if (target instanceof FileChannel channel) {
+                try {
+                    channel.force(false);
+                } catch (ClosedByInterruptException e) {
+                    // 中断关闭了共享通道，这次写入没有落盘，必须报告给调用方
+                    throw e;
+                } catch (ClosedChannelException ignored) {
+                    // 分段已被合并关闭，合并时已先刷盘
+                }
+            } else if (target instanceof Path dir) {
+                // 部分平台（如 Windows）不能以只读方式打开目录，此时改名由文件系统自行保证
+                try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 按日期加锁工具类
+     * 日期按哈希分散到固定数量的锁上，同一天的写入串行执行，不同日期的写入可以并行。
+     * 修改前先记下版本（文件的修改时间；只在数据库中的日记为 updated_at），持锁写入前再比较一次，
+     * 版本变了说明期间有其他写入者，放弃本次写入，由调用方决定是否覆盖。
+     */
+    private static class LockUtil {
+        private static final int STRIPES = 64;
+        // 不检查版本，直接写入
+        static final long ANY = -1;
+
+        enum Outcome { OK, FAILED, CONFLICT }
+
+        private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+        static {
+            for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+        }
+
+        static ReentrantLock of(String date) {
+            int h = date.hashCode();
+            return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        }
+
+        /** 当前版本，不存在时返回 0；数据库查询失败时返回 ANY，不阻止写入 */
+        static long version(String date) {
+            CatalogUtil.EntryMeta meta = CatalogUtil.get(date);
+            if (meta != null) return meta.mtime();
+            try {
+                return DatabaseUtil.version(date);
+            } catch (SQLException e) {
+                return ANY;
+            }
+        }
+
+        /** 版本仍为 expected 时写入文件，写入成功后在锁内提交数据库同步，保证同一天的提交顺序与文件一致 */
+        static Outcome save(String date, String content, long expected) {
+            ReentrantLock lock = of(date);
+            lock.lock();
+            try {
+                if (!unchanged(date, expected)) return Outcome.CONFLICT;
+                if (!FileUtil.save(date, content, true)) return Outcome.FAILED;
+                if (DatabaseUtil.isAvailable()) WriteBehind.submitSave(date, content);
+                return Outcome.OK;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** 版本仍为 expected 时删除；文件和数据库中都没有这一天时返回 FAILED */
+        static Outcome delete(String date, long expected) {
+            ReentrantLock lock = of(date);
+            lock.lock();
+            try {
+                if (!unchanged(date, expected)) return Outcome.CONFLICT;
+                boolean deleted = FileUtil.delete(date);
+                if (DatabaseUtil.isAvailable()) {
+                    WriteBehind.submitDelete(date);
+                    deleted = true;
+                }
+                return deleted ? Outcome.OK : Outcome.FAILED;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static boolean unchanged(String date, long expected) {
+            if (expected == ANY) return true;
+            long current = version(date);
+            return current == ANY || current == expected;
+        }
+    }
+
+    /**
+     * 文件操作工具类
+     */
+    private static class FileUtil {
+        private static final String HEADER_PREFIX = "📅 日期：";
+
+        static void initDir() {
+            File dir = new File(DIARY_DIR);
+            if (!dir.exists() && dir.mkdir()) System.out.println("✅ 创建文件夹：" + DIARY_DIR);
+            // 上次写入中途退出留下的临时文件，目标文件仍是改名前的完整版本
+            File[] leftovers = dir.listFiles((d, name) -> name.startsWith("日记_") && name.endsWith(".tmp"));
+            if (leftovers != null) {
+                for (File tmp : leftovers) {
+                    if (tmp.delete()) System.out.println("🧹 清理未完成的写入：" + tmp.getName());
+                }
+            }
+        }
+
+        static boolean useSegments() { return STORAGE_MODE.equals("segment"); }
+
+        static File getFile(String date) {
+            return new File(DIARY_DIR + "/日记_" + date + ".txt");
+        }
+
+        /** 日记所在位置，用于列表显示 */
+        static String locate(String date) {
+            return useSegments() ? SegmentStore.locate(date) : "日记_" + date + ".txt";
+        }
+
+        static boolean save(String date, String content, boolean withHeader) {
+            long start = System.nanoTime();
+            ContentCache.invalidate(date);
+            String fileContent = withHeader ? HEADER_PREFIX + date + "\n════════════════════════════════════════\n" + content : content;
+            if (useSegments()) {
+                try {
+                    SegmentStore.Location loc = SegmentStore.put(date, encode(fileContent));
+                    GroupCommit.commit(() -> {}, loc.channel());
+                    // 写入前后各清一次：两次之间的读取可能把旧内容重新放回缓存
+                    ContentCache.invalidate(date);
+                    CatalogUtil.put(date, loc.length(), loc.mtime());
+                    IndexUtil.update(date, fileContent, loc.mtime());
+                    DigestUtil.update(date, fileContent, loc.mtime());
+                    Metrics.FILE_SAVE.record(start, loc.length());
+                    return true;
+                } catch (IOException e) {
+                    Metrics.FILE_SAVE.error(start);
+                    System.out.println("❌ 保存失败：" + e.getMessage());
+                    return false;
+                }
+            }
+
+            File file = getFile(date);
+            CatalogUtil.EntryMeta previous = CatalogUtil.get(date);
+            try {
+                writeAtomically(file.toPath(), encode(fileContent));
+            } catch (IOException e) {
+                Metrics.FILE_SAVE.error(start);
+                System.out.println("❌ 保存文件失败：" + e.getMessage());
+                return false;
+            }
+            // 修改时间兼作版本号，同一毫秒内的两次写入也要递增
+            if (previous != null && file.lastModified() <= previous.mtime()) file.setLastModified(previous.mtime() + 1);
+            ContentCache.invalidate(date);
+            CatalogUtil.put(date, file.length(), file.lastModified());
+            IndexUtil.update(date, fileContent, file.lastModified());
+            DigestUtil.update(date, fileContent, file.lastModified());
+            Metrics.FILE_SAVE.record(start, file.length());
+            return true;
+        }
+
+        static boolean delete(String date) {
+            long start = System.nanoTime();
+            ContentCache.invalidate(date);
+            if (!CatalogUtil.contains(date)) return false;
+            try {
+                if (useSegments()) {
+                    FileChannel channel = SegmentStore.delete(date);
+                    if (channel != null) GroupCommit.commit(() -> {}, channel);
+                } else {
+                    Path path = getFile(date).toPath();
+                    GroupCommit.commit(() -> Files.delete(path), path.getParent());
+                }
+            } catch (IOException e) {
+                Metrics.FILE_DELETE.error(start);
+                System.out.println("❌ 删除失败：" + e.getMessage()); return false;
+            }
+            ContentCache.invalidate(date);
+            CatalogUtil.remove(date);
+            IndexUtil.remove(date);
+            DigestUtil.remove(date);
+            Metrics.FILE_DELETE.record(start, 0);
+            return true;
+        }
+
+        // 新建日记文件的权限，与此前 FileWriter 在常见 umask（022）下创建的文件一致
+        private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+        // 不支持原子改名时只提示一次
+        private static volatile boolean atomicMoveWarned = false;
+
+        /**
+         * 先写入同目录下的临时文件并在当前线程刷盘，再原子改名覆盖目标文件，最后刷新目录。
+         * 中途崩溃时目标文件要么是旧版本，要么是完整的新版本；改名和目录刷盘经由 GroupCommit 与其他写入者合并
+         */
+        private static void writeAtomically(Path target, byte[] data) throws IOException {
+            Path dir = target.toAbsolutePath().getParent();
+            Path tmp = Files.createTempFile(dir, target.getFileName() + ".", ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                    channel.force(false);
+                }
+                copyPermissions(target, tmp);
+                GroupCommit.commit(() -> {
+                    try {
+                        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        if (!atomicMoveWarned) {
+                            atomicMoveWarned = true;
+                            System.out.println("⚠️ 文件系统不支持原子改名，改为普通覆盖，保存中途崩溃可能损坏日记：" + e.getMessage());
+                        }
+                        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }, dir);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        // createTempFile 创建的文件权限为 0600，改名后会沿用；改为目标文件原有的权限（新文件为 0644）
+        private static void copyPermissions(Path target, Path tmp) throws IOException {
+            if (!Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class)) return;
+            Set<PosixFilePermission> permissions;
+            try {
+                permissions = Files.getPosixFilePermissions(target);
+            } catch (NoSuchFileException e) {
+                permissions = DEFAULT_PERMISSIONS;
+            }
+            Files.setPosixFilePermissions(tmp, permissions);
+        }
+
+        private static byte[] encode(String content) {
+            byte[] raw = content.getBytes(FILE_CHARSET);
+            return COMPRESS ? CompressUtil.compress(raw) : raw;
+        }
+
+        /** 按 UTF-8 解码；不是合法 UTF-8 时视为旧版本按平台默认编码写入的文件 */
+        static String decode(ByteBuffer buffer) {
+            try {
+                return FILE_CHARSET.newDecoder().decode(buffer.duplicate()).toString();
+            } catch (CharacterCodingException e) {
+                return LEGACY_CHARSET.decode(buffer).toString();
+            }
+        }
+
+        /** 读取完整内容（含日期标题），不存在时返回 null */
+        static String read(String date) throws IOException {
+            long start = System.nanoTime();
+            String cached = ContentCache.get(date, false);
+            if (cached != null) { Metrics.FILE_READ.record(start, 0); return cached; }
+            long generation = ContentCache.generation();
+            ByteBuffer buffer;
+            try {
+                buffer = map(date);
+            } catch (IOException e) {
+                Metrics.FILE_READ.error(start);
+                throw e;
+            }
+            if (buffer == null) { Metrics.FILE_READ.record(start, 0); return CatalogUtil.contains(date) ? "" : null; }
+            int size = buffer.remaining();
+            String content = decode(buffer);
+            ContentCache.put(date, false, content, generation);
+            Metrics.FILE_READ.record(start, size);
+            return content;
+        }
+
+        /** 前五行摘要，用于修改和删除前的确认 */
+        static String preview(String date) throws IOException {
+            String cached = ContentCache.get(date, true);
+            if (cached != null) return cached;
+            long generation = ContentCache.generation();
+            String content = read(date);
+            if (content == null) return null;
+            String preview = String.join("\n", content.lines().limit(5).toList());
+            ContentCache.put(date, true, preview, generation);
+            return preview;
+        }
+
+        /**
+         * 只读字节视图：文件模式为内存映射，分段模式为一次定位读取，压缩内容在这里解压；为空时返回 null
+         */
+        static ByteBuffer map(String date) throws IOException {
+            if (!CatalogUtil.contains(date)) return null;
+            ByteBuffer buffer;
+            if (useSegments()) {
+                buffer = SegmentStore.read(date);
+            } else {
+                try (FileChannel channel = FileChannel.open(getFile(date).toPath(), StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    buffer = size == 0 ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            return buffer != null && CompressUtil.isCompressed(buffer) ? CompressUtil.decompress(buffer) : buffer;
+        }
+
+        /** 去掉保存时添加的日期行和分隔线，返回首尾去空白的正文，与数据库中保存的内容一致 */
+        static String body(String fileContent) {
+            String content = fileContent;
+            if (content.startsWith(HEADER_PREFIX)) {
+                int first = content.indexOf('\n');
+                int second = first < 0 ? -1 : content.indexOf('\n', first + 1);
+                content = second < 0 ? "" : content.substring(second + 1);
+            }
+            return content.trim();
+        }
+
+        static String getDateFromFilename(String filename) {
+            return filename.substring(3, filename.length() - 4);
+        }
+
+        /** 按相关度返回前 k 篇及摘要 */
+        static RankUtil.Result searchInFiles(String keyword, int k) {
+            long start = System.nanoTime();
+            RankUtil.Result found = search(keyword, k);
+            Metrics.FILE_SEARCH.record(start, 0);
+            return found;
+        }
+
+        private static RankUtil.Result search(String keyword, int k) {
+            if (!SEARCH_MODE.equals("scan") && IndexUtil.isReady()) {
+                RankUtil.Result indexed = IndexUtil.search(keyword, k);
+                if (indexed != null) return indexed;
+            }
+
+            List<String> dates = new ArrayList<>();
+            CatalogUtil.dates().forEach(date -> dates.add(date.toString()));
+            return ScanUtil.search(dates, keyword, k);
+        }
+
+        /**
+         * 只解码 offset（字节）前后各 radius 字节；文件模式下内存映射只会读入附近的页，
+         * 分段模式为一次定位读取
+         */
+        static String window(String date, int offset, int radius) throws IOException {
+            long start = System.nanoTime();
+            ByteBuffer buffer = map(date);
+            if (buffer == null) return null;
+            String window = decodeWindow(buffer, offset, radius);
+            Metrics.FILE_READ.record(start, Metrics.utf8Length(window));
+            return window;
+        }
+
+        /** 解码缓冲区中 offset 附近的一段，两端对齐到 UTF-8 字符边界 */
+        static String decodeWindow(ByteBuffer buffer, int offset, int radius) {
+            int base = buffer.position(), limit = buffer.limit();
+            int from = Math.max(base, base + offset - radius);
+            int to = Math.min(limit, Math.max(from, base + offset + radius));
+            while (from > base && (buffer.get(from) & 0xC0) == 0x80) from--;
+            while (to < limit && (buffer.get(to) & 0xC0) == 0x80) to++;
+            return StandardCharsets.UTF_8.decode(buffer.slice(from, to - from)).toString();
+        }
+    }
+
+    /**
+     * 日期目录类
+     * 启动时遍历一次 diaries/，之后由本程序的写入和 WatchService 监听线程保持最新，
+     * 列表、选择和存在性判断都直接查询有序映射，不再遍历目录。
+     */
+    private static class CatalogUtil {
+        record EntryMeta(long size, long mtime) {}
+
+        private static final ConcurrentSkipListMap<LocalDate, EntryMeta> entries = new ConcurrentSkipListMap<>();
+
+        static void init() throws IOException {
+            if (FileUtil.useSegments()) {
+                SegmentStore.open();
+                SegmentStore.forEach((date, loc) -> entries.put(date, new EntryMeta(loc.length(), loc.mtime())));
+                return;
+            }
+            rebuild();
+            Thread watcher = new Thread(CatalogUtil::watch, "diary-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+
+        private static void rebuild() {
+            File[] files = new File(DIARY_DIR).listFiles((d, n) -> n.startsWith("日记_") && n.endsWith(".txt"));
+            Map<LocalDate, EntryMeta> found = new HashMap<>();
+            if (files != null) {
+                for (File file : files) {
+                    LocalDate date = parse(file.getName());
+                    if (date != null) found.put(date, new EntryMeta(file.length(), file.lastModified()));
+                }
+            }
+            entries.keySet().retainAll(found.keySet());
+            entries.putAll(found);
+        }
+
+        private static void watch() {
+            try (WatchService service = FileSystems.getDefault().newWatchService()) {
+                Path dir = Paths.get(DIARY_DIR);
+                dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                while (true) {
+                    WatchKey key = service.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rebuild();
+                            continue;
+                        }
+                        String name = event.context().toString();
+                        LocalDate date = parse(name);
+                        if (date == null) continue;
+                        File file = dir.resolve(name).toFile();
+                        ContentCache.invalidate(date.toString());
+                        if (file.exists()) {
+                            put(date.toString(), file.length(), file.lastModified());
+                            IndexUtil.refresh(date.toString(), file);
+                            DigestUtil.refresh(date.toString(), file);
+                        } else {
+                            remove(date.toString());
+                            IndexUtil.remove(date.toString());
+                            DigestUtil.remove(date.toString());
+                        }
+                    }
+                    if (!key.reset()) break;
+                }
+            } catch (IOException e) {
+                System.out.println("⚠️ 无法监听日记文件夹，外部修改将不会自动同步：" + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static LocalDate parse(String filename) {
+            if (!filename.startsWith("日记_") || !filename.endsWith(".txt")) return null;
+            try { return LocalDate.parse(FileUtil.getDateFromFilename(filename), DATE_FORMATTER); }
+            catch (Exception e) { return null; }
+        }
+
+        static void put(String date, long size, long mtime) {
+            entries.put(LocalDate.parse(date), new EntryMeta(size, mtime));
+        }
+
+        static void remove(String date) { entries.remove(LocalDate.parse(date)); }
+
+        static boolean contains(String date) { return entries.containsKey(LocalDate.parse(date)); }
+
+        static EntryMeta get(String date) { return entries.get(LocalDate.parse(date)); }
+
+        static int size() { return entries.size(); }
+
+        /** 按日期倒序的视图 */
+        static NavigableMap<LocalDate, EntryMeta> descending() { return entries.descendingMap(); }
+
+        static NavigableSet<LocalDate> dates() { return entries.descendingKeySet(); }
+
+        /**
+         * 按日期倒序取一页：范围 [from, to] 内、早于 before 的最多 limit 条，before 为 null 时从最新开始
+         */
+        static List<LocalDate> page(LocalDate from, LocalDate to, LocalDate before, int limit) {
+            NavigableMap<LocalDate, EntryMeta> range = entries.subMap(from, true, to, true);
+            if (before != null) range = range.headMap(before, false);
+            List<LocalDate> page = new ArrayList<>(limit);
+            for (LocalDate date : range.descendingKeySet()) {
+                if (page.size() == limit) break;
+                page.add(date);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * 分段日志存储
+     * 所有日记追加写入 diaries.seg/ 下的分段文件，内存中按日期保存每条记录的位置，读取只需一次定位读；
+     * 每条记录带 CRC 校验，覆盖和删除产生的旧记录由后台线程合并清理。
+     * 记录格式：魔数(4) CRC(4) 类型(1) 日期(4, epochDay) 时间戳(8) 长度(4) 内容(长度)
+     */
+    private static class SegmentStore {
+        private static final int MAGIC = 0xD1A7_5E61;
+        private static final int HEADER_SIZE = 25;
+        private static final byte PUT = 1, DELETE = 2;
+        private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+        private static final double COMPACT_RATIO = 0.5;
+
+        /**
+         * 记录内容在分段文件中的位置
+         * 连同所在分段的通道一起保存：合并会用新文件替换同编号的分段，偏移只对写入时的那个通道有效
+         */
+        record Location(int segment, FileChannel channel, long offset, int length, long mtime) {
+            long recordSize() { return HEADER_SIZE + length; }
+        }
+
+        private static final ConcurrentSkipListMap<LocalDate, Location> index = new ConcurrentSkipListMap<>();
+        private static final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+        private static final Map<Integer, Long> liveBytes = new HashMap<>();
+        private static int active = 0;
+
+        /** 打开失败时抛出异常，由调用方终止启动，不留下没有分段的存储 */
+        static synchronized void open() throws IOException {
+            try {
+                Path dir = Files.createDirectories(Paths.get(SEGMENT_DIR));
+                List<Integer> ids = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment_*.log")) {
+                    for (Path path : stream) {
+                        String name = path.getFileName().toString();
+                        ids.add(Integer.parseInt(name.substring(8, name.length() - 4)));
+                    }
+                }
+                // 上次合并中途退出留下的临时文件，原分段仍然完整
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment_*.log.compact")) {
+                    for (Path path : stream) Files.deleteIfExists(path);
+                }
+                Collections.sort(ids);
+                for (int i = 0; i < ids.size(); i++) replay(ids.get(i), i == ids.size() - 1);
+                if (ids.isEmpty()) roll(); else active = ids.get(ids.size() - 1);
+            } catch (NumberFormatException e) {
+                throw new IOException("分段文件名无法识别：" + e.getMessage(), e);
+            }
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "diary-compactor");
+                t.setDaemon(true);
+                return t;
+            }).scheduleWithFixedDelay(SegmentStore::compactAll, 1, 1, TimeUnit.MINUTES);
+        }
+
+        private static Path path(int id) {
+            return Paths.get(SEGMENT_DIR, String.format("segment_%06d.log", id));
+        }
+
+        // 顺序读取一个分段重建位置索引；最后一个分段中不完整或校验失败的尾部会被截断
+        private static void replay(int id, boolean last) throws IOException {
+            FileChannel channel = FileChannel.open(path(id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(id, channel);
+            liveBytes.put(id, 0L);
+            long size = channel.size();
+            long pos = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (pos + HEADER_SIZE <= size) {
+                header.clear();
+                channel.read(header, pos);
+                header.flip();
+                int magic = header.getInt();
+                int crc = header.getInt();
+                byte type = header.get();
+                int epochDay = header.getInt();
+                long mtime = header.getLong();
+                int length = header.getInt();
+                if (magic != MAGIC || length < 0 || pos + HEADER_SIZE + length > size) break;
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, pos + HEADER_SIZE);
+                if (checksum(type, epochDay, mtime, payload.array()) != crc) break;
+
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                release(index.remove(date));
+                if (type == PUT) {
+                    Location loc = new Location(id, channel, pos + HEADER_SIZE, length, mtime);
+                    index.put(date, loc);
+                    liveBytes.merge(id, loc.recordSize(), Long::sum);
+                }
+                pos += HEADER_SIZE + length;
+            }
+            if (pos < size) {
+                if (last) {
+                    System.out.println("⚠️ 分段 " + path(id).getFileName() + " 尾部记录不完整，已截断");
+                    channel.truncate(pos);
+                } else {
+                    System.out.println("⚠️ 分段 " + path(id).getFileName() + " 在偏移 " + pos + " 处校验失败，其后的记录已忽略");
+                }
+            }
+        }
+
+        private static int checksum(byte type, int epochDay, long mtime, byte[] payload) {
+            CRC32 crc = new CRC32();
+            ByteBuffer meta = ByteBuffer.allocate(13).put(type).putInt(epochDay).putLong(mtime);
+            crc.update(meta.array());
+            crc.update(payload);
+            return (int) crc.getValue();
+        }
+
+        private static void release(Location old) {
+            if (old != null) liveBytes.merge(old.segment(), -old.recordSize(), Long::sum);
+        }
+
+        private static void roll() throws IOException {
+            active = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            segments.put(active, FileChannel.open(path(active), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+            liveBytes.put(active, 0L);
+            GroupCommit.sync(Paths.get(SEGMENT_DIR));
+        }
+
+        private static Location append(byte type, LocalDate date, byte[] payload, long mtime) throws IOException {
+            FileChannel channel = segments.get(active);
+            if (channel.size() > 0 && channel.size() + HEADER_SIZE + payload.length > SEGMENT_SIZE) {
+                roll();
+                channel = segments.get(active);
+            }
+            int epochDay = (int) date.toEpochDay();
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+            record.putInt(MAGIC).putInt(checksum(type, epochDay, mtime, payload)).put(type)
+                    .putInt(epochDay).putLong(mtime).putInt(payload.length).put(payload).flip();
+            long pos = channel.size();
+            try {
+                while (record.hasRemaining()) channel.write(record, pos + record.position());
+            } catch (IOException e) {
+                // 截掉写了一半的记录，否则之后追加的记录在重放时会被它挡住
+                try { channel.truncate(pos); } catch (IOException suppressed) { e.addSuppressed(suppressed); }
+                throw e;
+            }
+            return new Location(active, channel, pos + HEADER_SIZE, payload.length, mtime);
+        }
+
+        static synchronized Location put(String date, byte[] payload) throws IOException {
+            LocalDate key = LocalDate.parse(date);
+            Location old = index.get(key);
+            // 时间戳兼作版本号，保证同一天的每次写入都递增
+            long mtime = Math.max(System.currentTimeMillis(), old == null ? 0 : old.mtime() + 1);
+            Location loc = append(PUT, key, payload, mtime);
+            release(index.put(key, loc));
+            liveBytes.merge(loc.segment(), loc.recordSize(), Long::sum);
+            return loc;
+        }
+
+        /** 追加删除标记，返回写入的分段供调用方刷盘；不存在时返回 null */
+        static synchronized FileChannel delete(String date) throws IOException {
+            LocalDate key = LocalDate.parse(date);
+            if (!index.containsKey(key)) return null;
+            append(DELETE, key, new byte[0], System.currentTimeMillis());
+            release(index.remove(key));
+            return segments.get(active);
+        }
+
+        /**
+         * 一次定位读取记录内容，不存在时返回 null
+         * 不加锁：定位读不改变通道位置，可以与写入、合并及其他读取并发进行
+         */
+        static ByteBuffer read(String date) throws IOException {
+            LocalDate key = LocalDate.parse(date);
+            while (true) {
+                Location loc = index.get(key);
+                if (loc == null || loc.length() == 0) return null;
+                ByteBuffer buffer = ByteBuffer.allocate(loc.length());
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (loc.channel().read(buffer, loc.offset() + buffer.position()) < 0) throw new EOFException();
+                    }
+                    return buffer.flip();
+                } catch (ClosedChannelException e) {
+                    // 合并先把索引换到新分段再关闭旧通道，位置有变化说明读到一半被合并，按新位置重读
+                    if (index.get(key) == loc) throw e;
+                }
+            }
+        }
+
+        static String locate(String date) {
+            Location loc = index.get(LocalDate.parse(date));
+            return loc == null ? "-" : path(loc.segment()).getFileName().toString();
+        }
+
+        static void forEach(java.util.function.BiConsumer<LocalDate, Location> action) {
+            index.forEach(action);
+        }
+
+        // 合并有效数据占比过低的已封存分段；只在挑选分段和替换时短暂持有锁，复制记录期间读写照常进行
+        private static void compactAll() {
+            List<Integer> candidates = new ArrayList<>();
+            synchronized (SegmentStore.class) {
+                for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+                    int id = entry.getKey();
+                    if (id == active) continue;
+                    try {
+                        long total = entry.getValue().size();
+                        if (total == 0 || liveBytes.getOrDefault(id, 0L) < total * COMPACT_RATIO) candidates.add(id);
+                    } catch (IOException e) {
+                        System.out.println("⚠️ 合并分段失败：" + e.getMessage());
+                    }
+                }
+            }
+            for (int id : candidates) {
+                try {
+                    compact(id);
+                } catch (IOException e) {
+                    System.out.println("⚠️ 合并分段失败：" + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * 把分段中仍有效的记录复制到临时文件，再改名替换原分段。
+         * 替换后的分段编号不变，重放顺序也不变：复制期间被覆盖的记录即使留在新文件里，也会被更新的分段盖过。
+         * 已封存的分段不会再被写入，复制无需加锁；只有改名和索引切换在锁内完成。
+         */
+        private static void compact(int id) throws IOException {
+            FileChannel channel;
+            boolean oldest;
+            synchronized (SegmentStore.class) {
+                channel = segments.get(id);
+                if (channel == null || id == active) return;
+                oldest = id == segments.firstKey();
+            }
+            Path tmp = Paths.get(SEGMENT_DIR, path(id).getFileName() + ".compact");
+            Map<LocalDate, Location> moved = new HashMap<>();
+            Map<LocalDate, Long> newOffsets = new HashMap<>();
+            long written = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                long pos = 0;
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (pos + HEADER_SIZE <= size) {
+                    header.clear();
+                    channel.read(header, pos);
+                    header.flip();
+                    if (header.getInt() != MAGIC) break;
+                    header.getInt();
+                    byte type = header.get();
+                    LocalDate date = LocalDate.ofEpochDay(header.getInt());
+                    header.getLong();
+                    int length = header.getInt();
+                    Location current = index.get(date);
+                    boolean live = type == PUT && current != null && current.channel() == channel && current.offset() == pos + HEADER_SIZE;
+                    // 更早的分段里可能还有这一天的旧记录，删除标记需要继续保留
+                    boolean tombstone = type == DELETE && current == null && !oldest;
+                    if (live || tombstone) {
+                        // 原样复制头部和内容，时间戳与校验值保持不变
+                        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+                        while (record.hasRemaining()) {
+                            if (channel.read(record, pos + record.position()) < 0) throw new EOFException();
+                        }
+                        record.flip();
+                        if (live) {
+                            moved.put(date, current);
+                            newOffsets.put(date, written + HEADER_SIZE);
+                        }
+                        while (record.hasRemaining()) written += out.write(record, written);
+                    }
+                    pos += HEADER_SIZE + length;
+                }
+                // 复制的记录落盘后才能替换旧分段
+                out.force(false);
+            }
+
+            synchronized (SegmentStore.class) {
+                if (written == 0) {
+                    segments.remove(id);
+                    liveBytes.remove(id);
+                    Files.deleteIfExists(path(id));
+                    Files.deleteIfExists(tmp);
+                } else {
+                    Files.move(tmp, path(id), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    FileChannel replaced = FileChannel.open(path(id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    segments.put(id, replaced);
+                    long live = 0;
+                    for (Map.Entry<LocalDate, Location> entry : moved.entrySet()) {
+                        Location old = entry.getValue();
+                        Location now = new Location(id, replaced, newOffsets.get(entry.getKey()), old.length(), old.mtime());
+                        // 复制期间被覆盖或删除的记录不再切换，留在新文件里的只是无效数据
+                        if (index.replace(entry.getKey(), old, now)) live += now.recordSize();
+                    }
+                    liveBytes.put(id, live);
+                }
+            }
+            GroupCommit.sync(Paths.get(SEGMENT_DIR));
+            // 索引已指向新文件；仍在旧通道上读取的线程会收到 ClosedChannelException 并按新位置重读
+            channel.close();
+        }
+    }
+
+    /**
+     * 并行扫描工具类
+     * 没有可用索引时使用：把日期列表拆分给 fork-join 线程池，每篇日记通过内存映射（分段模式为定位读取）读取，
+     * 直接在 UTF-8 字节上匹配（ASCII 字母忽略大小写），不为每一行创建字符串。
+     * 同一次遍历中统计出现次数、截取首次命中处的摘要，最后按 BM25 取前 k 篇。
+     */
+    private static class ScanUtil {
+        private static final int THRESHOLD = 8;
+
+        static RankUtil.Result search(List<String> dates, String keyword, int k) {
+            String needle = keyword.toLowerCase();
+            byte[] pattern = needle.getBytes(StandardCharsets.UTF_8);
+            // 关键词含非 ASCII 大小写字母时，字节匹配不可靠，改为整文件解码比较
+            boolean decode = needle.chars().anyMatch(c -> c >= 0x80 && Character.toUpperCase(c) != c);
+
+            int[] tf = new int[dates.size()];
+            int[] sizes = new int[dates.size()];
+            String[] snippets = new String[dates.size()];
+            ForkJoinPool.commonPool().invoke(new ScanTask(dates, 0, dates.size(), needle, pattern, decode, tf, sizes, snippets));
+
+            long totalSize = 0;
+            int matched = 0;
+            for (int i = 0; i < tf.length; i++) {
+                totalSize += sizes[i];
+                if (tf[i] > 0) matched++;
+            }
+            // 整个关键词作为一个词项打分：idf 对所有命中相同，排序取决于次数和篇幅
+            double idf = RankUtil.idf(dates.size(), matched);
+            double avgSize = dates.isEmpty() ? 1 : Math.max(1.0, (double) totalSize / dates.size());
+            List<RankUtil.Hit> hits = new ArrayList<>(matched);
+            for (int i = 0; i < tf.length; i++) {
+                if (tf[i] > 0) hits.add(new RankUtil.Hit(dates.get(i), RankUtil.bm25(tf[i], sizes[i], avgSize, idf), snippets[i]));
+            }
+            return new RankUtil.Result(RankUtil.top(hits, k, RankUtil.ORDER), matched, true);
+        }
+
+        private static class ScanTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final List<String> dates;
+            private final int from, to;
+            private final String needle;
+            private final byte[] pattern;
+            private final boolean decode;
+            private final int[] tf, sizes;
+            private final String[] snippets;
+
+            ScanTask(List<String> dates, int from, int to, String needle, byte[] pattern, boolean decode,
+                     int[] tf, int[] sizes, String[] snippets) {
+                this.dates = dates; this.from = from; this.to = to;
+                this.needle = needle; this.pattern = pattern; this.decode = decode;
+                this.tf = tf; this.sizes = sizes; this.snippets = snippets;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= THRESHOLD) {
+                    for (int i = from; i < to; i++) matchEntry(i);
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScanTask(dates, from, mid, needle, pattern, decode, tf, sizes, snippets),
+                        new ScanTask(dates, mid, to, needle, pattern, decode, tf, sizes, snippets));
+            }
+
+            private void matchEntry(int i) {
+                String date = dates.get(i);
+                try {
+                    ByteBuffer buffer = FileUtil.map(date);
+                    if (buffer == null) return;
+                    sizes[i] = buffer.remaining();
+                    if (decode) {
+                        String content = FileUtil.decode(buffer);
+                        String lower = content.toLowerCase();
+                        for (int at = lower.indexOf(needle); at >= 0; at = lower.indexOf(needle, at + needle.length())) tf[i]++;
+                        if (tf[i] > 0) snippets[i] = RankUtil.snippet(FileUtil.body(content), needle);
+                        return;
+                    }
+                    int first = indexOf(buffer, pattern, buffer.position());
+                    if (first < 0) return;
+                    for (int at = first; at >= 0; at = indexOf(buffer, pattern, at + pattern.length)) tf[i]++;
+                    snippets[i] = RankUtil.snippet(FileUtil.decodeWindow(buffer, first - buffer.position(), RankUtil.SNIPPET_BYTES), needle);
+                } catch (IOException e) {
+                    System.out.println("❌ 读取失败：" + FileUtil.locate(date));
+                }
+            }
+        }
+
+        /**
+         * 在缓冲区中查找已转为小写的 UTF-8 字节序列，ASCII 大写字母按小写比较
+         */
+        static int indexOf(ByteBuffer buffer, byte[] pattern) {
+            return indexOf(buffer, pattern, buffer.position());
+        }
+
+        static int indexOf(ByteBuffer buffer, byte[] pattern, int from) {
+            int limit = buffer.limit() - pattern.length;
+            byte first = pattern[0];
+            for (int i = from; i <= limit; i++) {
+                if (lower(buffer.get(i)) != first) continue;
+                int j = 1;
+                while (j < pattern.length && lower(buffer.get(i + j)) == pattern[j]) j++;
+                if (j == pattern.length) return i;
+            }
+            return -1;
+        }
+
+        private static byte lower(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+        }
+    }
+
+    /**
+     * 搜索排序工具类
+     * BM25 打分、用有界堆取前 k 篇，以及从一小段文本生成高亮摘要。
+     */
+    private static class RankUtil {
+        private static final double K1 = 1.2, B = 0.75;
+        // 按偏移定位摘要时，命中处前后各解码的字节数
+        static final int SNIPPET_BYTES = 96;
+        // 摘要中关键词前后各保留的字符数
+        private static final int SNIPPET_CHARS = 20;
+
+        record Hit(String date, double score, String snippet) {}
+
+        /** 一次搜索的结果；exact 为 false 时 total 是尚未逐篇确认的候选数，只是上限 */
+        record Result(List<Hit> hits, int total, boolean exact) {}
+
+        /** 分数高的在前，同分时日期新的在前 */
+        static final Comparator<Hit> ORDER =
+                Comparator.comparingDouble(Hit::score).reversed().thenComparing(Hit::date, Comparator.reverseOrder());
+
+        static double idf(int docs, int df) {
+            return Math.log(1 + (docs - df + 0.5) / (df + 0.5));
+        }
+
+        static double bm25(int tf, int length, double avgLength, double idf) {
+            if (tf == 0) return 0;
+            return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+        }
+
+        /** 用大小为 k 的堆保留排序最靠前的 k 个（堆顶是其中最差的一个），返回时按 order 排好 */
+        static <T> List<T> top(Iterable<T> items, int k, Comparator<T> order) {
+            PriorityQueue<T> heap = new PriorityQueue<>(k + 1, order.reversed());
+            for (T item : items) {
+                heap.offer(item);
+                if (heap.size() > k) heap.poll();
+            }
+            List<T> result = new ArrayList<>(heap);
+            result.sort(order);
+            return result;
+        }
+
+        /** 取关键词附近的一小段，空白合并为一个空格，关键词用【】标出；找不到关键词时取开头 */
+        static String snippet(String text, String needle) {
+            int at = needle.isEmpty() ? -1 : text.toLowerCase().indexOf(needle);
+            int from = at < 0 ? 0 : Math.max(0, at - SNIPPET_CHARS);
+            // 不把日期标题下的分隔线带进摘要
+            boolean clipped = from > 0;
+            int separator = text.lastIndexOf('═', at < 0 ? text.length() : at);
+            if (separator >= from) { from = separator + 1; clipped = false; }
+            int end = Math.min(text.length(), at < 0 ? from + SNIPPET_CHARS * 2 : at + needle.length() + SNIPPET_CHARS);
+            if (from > 0 && Character.isLowSurrogate(text.charAt(from))) from++;
+            if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) end++;
+            StringBuilder sb = new StringBuilder();
+            if (clipped) sb.append('…');
+            if (at < 0) {
+                sb.append(text, from, end);
+            } else {
+                sb.append(text, from, at).append('【').append(text, at, at + needle.length()).append('】')
+                        .append(text, at + needle.length(), end);
+            }
+            if (end < text.length()) sb.append('…');
+            return sb.toString().replaceAll("\\s+", " ").trim();
+        }
+
+        /** 在数据库返回的片段里标出关键词 */
+        static String highlight(String text, String needle) {
+            return text == null ? "" : snippet(text, needle);
+        }
+    }
+
+    /**
+     * 倒排索引工具类
+     * 索引文件与 diaries/ 同级，按追加日志格式保存：
+     *   "+\t日期\t修改时间\t词数\t词项:次数:偏移 ..." 表示新增或覆盖，"-\t日期" 表示删除，
+     * 偏移为词项首次出现的字节位置，用于按 BM25 排序和直接定位摘要。
+     * 中文（CJK）按相邻两字切分为二元词，末字另记一元词；拉丁字母和数字按小写单词切分。
+     */
+    private static class IndexUtil {
+        private static final String HEADER = "#diary-index v2";
+
+        /** 一篇日记的词项，按字典序排列；tf 为出现次数，offsets 为首次出现的字节偏移，length 为总词数 */
+        record DocEntry(String[] terms, int[] tf, int[] offsets, int length) {
+            int indexOf(String term) { return Arrays.binarySearch(terms, term); }
+        }
+
+        /** 打分后的候选，offset 为第一个查询词在文中首次出现的字节偏移 */
+        private record Scored(String date, double score, int offset) {}
+
+        /** 一次查询在锁内算出的候选，total 为所有查询词都命中的篇数 */
+        private record Candidates(List<Scored> scored, int total) {}
+
+        private static final Comparator<Scored> ORDER =
+                Comparator.comparingDouble(Scored::score).reversed().thenComparing(Scored::date, Comparator.reverseOrder());
+
+        private static final Map<String, DocEntry> forward = new HashMap<>();
+        private static final Map<String, Long> stamps = new HashMap<>();
+        private static final TreeMap<String, TreeSet<String>> postings = new TreeMap<>();
+        // 拉丁词项的每个后缀到词项的映射，按前缀范围查找即可找出包含某个片段的所有单词
+        private static final TreeMap<String, Set<String>> suffixes = new TreeMap<>();
+        private static long totalLength = 0;
+        private static int records = 0;
+        private static boolean ready = false;
+
+        static synchronized void init() {
+            File file = new File(INDEX_FILE);
+            try {
+                if (file.exists()) load(file);
+                boolean changed = catchUp();
+                if (changed || !file.exists() || records > forward.size() * 2 + 64) compact();
+                ready = true;
+            } catch (IOException e) {
+                System.out.println("⚠️ 索引加载失败，搜索将逐个扫描文件：" + e.getMessage());
+                clear();
+                ready = false;
+            }
+        }
+
+        static synchronized boolean isReady() { return ready; }
+
+        private static void clear() {
+            forward.clear(); stamps.clear(); postings.clear(); suffixes.clear(); totalLength = 0; records = 0;
+        }
+
+        // 旧版本的索引没有词频和偏移，版本不符或按旧默认编码写入时跳过，由 catchUp 全部重建
+        private static void load(File file) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), FILE_CHARSET)) {
+                if (!HEADER.equals(reader.readLine())) return;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", 5);
+                    if (parts[0].equals("+") && parts.length >= 4) {
+                        put(parts[1], decode(parts.length == 5 ? parts[4] : "", Integer.parseInt(parts[3])), Long.parseLong(parts[2]));
+                        records++;
+                    } else if (parts[0].equals("-") && parts.length >= 2) {
+                        drop(parts[1]);
+                        records++;
+                    }
+                }
+            } catch (CharacterCodingException e) {
+                clear();
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("索引文件已损坏");
+            }
+        }
+
+        private static String encode(DocEntry doc) {
+            StringJoiner joiner = new StringJoiner(" ");
+            for (int i = 0; i < doc.terms().length; i++) joiner.add(doc.terms()[i] + ":" + doc.tf()[i] + ":" + doc.offsets()[i]);
+            return joiner.toString();
+        }
+
+        private static DocEntry decode(String text, int length) {
+            String[] items = text.isEmpty() ? new String[0] : text.split(" ");
+            String[] terms = new String[items.length];
+            int[] tf = new int[items.length], offsets = new int[items.length];
+            for (int i = 0; i < items.length; i++) {
+                String[] fields = items[i].split(":");
+                terms[i] = fields[0];
+                tf[i] = Integer.parseInt(fields[1]);
+                offsets[i] = Integer.parseInt(fields[2]);
+            }
+            return new DocEntry(terms, tf, offsets, length);
+        }
+
+        // 对比磁盘上的日记文件，补齐在索引之外被修改或删除的条目
+        private static boolean catchUp() throws IOException {
+            boolean changed = false;
+            Set<String> onDisk = new HashSet<>();
+            for (Map.Entry<LocalDate, CatalogUtil.EntryMeta> e : CatalogUtil.descending().entrySet()) {
+                String date = e.getKey().toString();
+                onDisk.add(date);
+                Long stamp = stamps.get(date);
+                if (stamp == null || stamp != e.getValue().mtime()) {
+                    String content = FileUtil.read(date);
+                    put(date, tokenize(content == null ? "" : content), e.getValue().mtime());
+                    changed = true;
+                }
+            }
+            for (String date : new ArrayList<>(forward.keySet())) {
+                if (!onDisk.contains(date)) { drop(date); changed = true; }
+            }
+            return changed;
+        }
+
+        static synchronized void update(String date, String content, long stamp) {
+            if (!ready) return;
+            DocEntry doc = tokenize(content);
+            put(date, doc, stamp);
+            append("+\t" + date + "\t" + stamp + "\t" + doc.length() + "\t" + encode(doc));
+        }
+
+        // 文件在程序之外被修改时重新索引；修改时间未变（本程序自己的写入）则跳过。
+        // 经 FileUtil.read 读取，压缩的文件同样先解压；读文件时不持有索引锁
+        static void refresh(String date, File file) {
+            long modified = file.lastModified();
+            synchronized (IndexUtil.class) {
+                Long stamp = stamps.get(date);
+                if (!ready || (stamp != null && stamp == modified)) return;
+            }
+            try {
+                String content = FileUtil.read(date);
+                if (content != null) update(date, content, modified);
+            } catch (IOException e) {
+                System.out.println("⚠️ 重新索引失败：" + file.getName());
+            }
+        }
+
+        static synchronized void remove(String date) {
+            if (!ready || !forward.containsKey(date)) return;
+            drop(date);
+            append("-\t" + date);
+        }
+
+        private static void put(String date, DocEntry doc, long stamp) {
+            drop(date);
+            // 相同词项在各篇日记之间共用一个字符串实例
+            String[] terms = doc.terms();
+            for (int i = 0; i < terms.length; i++) {
+                TreeSet<String> dates = postings.get(terms[i]);
+                if (dates == null) {
+                    postings.put(terms[i], dates = new TreeSet<>());
+                    addSuffixes(terms[i]);
+                } else {
+                    terms[i] = postings.ceilingKey(terms[i]);
+                }
+                dates.add(date);
+            }
+            forward.put(date, doc);
+            stamps.put(date, stamp);
+            totalLength += doc.length();
+        }
+
+        private static void drop(String date) {
+            DocEntry old = forward.remove(date);
+            stamps.remove(date);
+            if (old == null) return;
+            totalLength -= old.length();
+            for (String token : old.terms()) {
+                TreeSet<String> dates = postings.get(token);
+                if (dates != null && dates.remove(date) && dates.isEmpty()) {
+                    postings.remove(token);
+                    removeSuffixes(token);
+                }
+            }
+        }
+
+        private static void addSuffixes(String token) {
+            if (isCjk(token.codePointAt(0))) return;
+            for (int i = 0; i < token.length(); i++) suffixes.computeIfAbsent(token.substring(i), t -> new HashSet<>()).add(token);
+        }
+
+        private static void removeSuffixes(String token) {
+            if (isCjk(token.codePointAt(0))) return;
+            for (int i = 0; i < token.length(); i++) {
+                String suffix = token.substring(i);
+                Set<String> tokens = suffixes.get(suffix);
+                if (tokens != null && tokens.remove(token) && tokens.isEmpty()) suffixes.remove(suffix);
+            }
+        }
+
+        private static void append(String record) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(INDEX_FILE, true), FILE_CHARSET)) {
+                writer.write(record + "\n");
+                records++;
+            } catch (IOException e) {
+                System.out.println("⚠️ 索引写入失败，搜索将逐个扫描文件：" + e.getMessage());
+                ready = false;
+                return;
+            }
+            if (records > forward.size() * 2 + 64) {
+                try { compact(); }
+                catch (IOException e) { System.out.println("⚠️ 索引整理失败：" + e.getMessage()); }
+            }
+        }
+
+        // 重写为每个日期仅一条记录，先写临时文件再替换
+        private static void compact() throws IOException {
+            Path tmp = Paths.get(INDEX_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, FILE_CHARSET)) {
+                writer.write(HEADER + "\n");
+                for (Map.Entry<String, DocEntry> e : forward.entrySet()) {
+                    writer.write("+\t" + e.getKey() + "\t" + stamps.get(e.getKey()) + "\t" +
+                            e.getValue().length() + "\t" + encode(e.getValue()) + "\n");
+                }
+            }
+            Files.move(tmp, Paths.get(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+            records = forward.size();
+        }
+
+        /**
+         * 按 BM25 相关度返回前 k 篇及摘要；关键词切不出词项时返回 null，由调用方回退到扫描。
+         * 单个词项与关键词完全一致时词项命中即子串命中，摘要按索引中的偏移定位读取；
+         * 否则按分数从高到低逐篇回读确认，凑满 k 篇即停止，确认时读到的内容同时用来生成摘要。
+         * 只有打分在锁内进行，摘要和回读都在释放锁之后，慢查询不会挡住保存时的索引更新。
+         */
+        static RankUtil.Result search(String keyword, int k) {
+            String needle = keyword.toLowerCase();
+            List<String> terms = new ArrayList<>();
+            List<Boolean> cjk = new ArrayList<>();
+            splitQuery(needle, terms, cjk);
+            if (terms.isEmpty()) return null;
+
+            Candidates candidates = score(terms, cjk);
+            List<Scored> scored = candidates.scored();
+            boolean exact = terms.size() == 1 && terms.get(0).equals(needle);
+            if (exact) {
+                List<RankUtil.Hit> hits = new ArrayList<>(k);
+                for (Scored hit : RankUtil.top(scored, k, ORDER)) {
+                    hits.add(new RankUtil.Hit(hit.date(), hit.score(), snippetAt(hit.date(), hit.offset(), needle)));
+                }
+                return new RankUtil.Result(hits, candidates.total(), true);
+            }
+
+            scored.sort(ORDER);
+            List<RankUtil.Hit> hits = new ArrayList<>(k);
+            for (Scored hit : scored) {
+                if (hits.size() == k) break;
+                String snippet = verify(hit.date(), needle);
+                if (snippet != null) hits.add(new RankUtil.Hit(hit.date(), hit.score(), snippet));
+            }
+            // 没有逐篇确认的候选只能算上限
+            boolean complete = hits.size() < k;
+            return new RankUtil.Result(hits, complete ? hits.size() : candidates.total(), complete);
+        }
+
+        // 在锁内取出倒排表并按 BM25 打分，不做任何文件读写
+        private static synchronized Candidates score(List<String> terms, List<Boolean> cjk) {
+
+            // 每个查询词对应词典中的一个或多个词项
+            List<Set<String>> expanded = new ArrayList<>();
+            Set<String> candidates = null;
+            double[] idf = new double[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                Set<String> tokens = lookup(terms.get(i), cjk.get(i));
+                Set<String> dates = new HashSet<>();
+                for (String token : tokens) dates.addAll(postings.get(token));
+                expanded.add(tokens);
+                idf[i] = RankUtil.idf(forward.size(), dates.size());
+                if (candidates == null) candidates = dates;
+                else candidates.retainAll(dates);
+                if (candidates.isEmpty()) return new Candidates(new ArrayList<>(), 0);
+            }
+
+            double avgLength = forward.isEmpty() ? 1 : (double) totalLength / forward.size();
+            List<Scored> scored = new ArrayList<>(candidates.size());
+            for (String date : candidates) {
+                DocEntry doc = forward.get(date);
+                double score = 0;
+                int offset = Integer.MAX_VALUE;
+                for (int i = 0; i < terms.size(); i++) {
+                    int tf = 0;
+                    for (String token : expanded.get(i)) {
+                        int at = doc.indexOf(token);
+                        if (at < 0) continue;
+                        tf += doc.tf()[at];
+                        if (i == 0) offset = Math.min(offset, doc.offsets()[at]);
+                    }
+                    score += RankUtil.bm25(tf, doc.length(), avgLength, idf[i]);
+                }
+                scored.add(new Scored(date, score, offset));
+            }
+            return new Candidates(scored, candidates.size());
+        }
+
+        private static Set<String> lookup(String term, boolean cjk) {
+            Set<String> tokens = new HashSet<>();
+            if (cjk) {
+                // 中文词项：二元词精确查找，单字按前缀查找
+                if (term.codePointCount(0, term.length()) > 1) {
+                    if (postings.containsKey(term)) tokens.add(term);
+                } else {
+                    tokens.addAll(postings.subMap(term, true, term + Character.MAX_VALUE, false).keySet());
+                }
+            } else {
+                // 拉丁词项可能是单词的一部分：以它开头的后缀都属于包含它的单词
+                for (Set<String> words : suffixes.subMap(term, true, term + '\uffff', false).values()) tokens.addAll(words);
+            }
+            return tokens;
+        }
+
+        // 按偏移只解码附近的一小段，不读取整篇
+        private static String snippetAt(String date, int offset, String needle) {
+            try {
+                String window = FileUtil.window(date, offset, RankUtil.SNIPPET_BYTES);
+                return window == null ? "" : RankUtil.snippet(window, needle);
+            } catch (IOException e) {
+                return "";
+            }
+        }
+
+        // 回读确认确实包含整个关键词，返回摘要；不包含时返回 null
+        private static String verify(String date, String needle) {
+            try {
+                String content = FileUtil.read(date);
+                if (content == null || !content.toLowerCase().contains(needle)) return null;
+                return RankUtil.snippet(FileUtil.body(content), needle);
+            } catch (IOException e) {
+                System.out.println("❌ 读取失败：" + FileUtil.locate(date));
+                return null;
+            }
+        }
+
+        /** 切分整篇内容，统计每个词项的次数和首次出现的字节偏移（按 UTF-8 计算） */
+        static DocEntry tokenize(String text) {
+            List<String> terms = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            split(text.toLowerCase(), terms, new ArrayList<>(), offsets, true);
+            TreeMap<String, int[]> counts = new TreeMap<>();
+            for (int i = 0; i < terms.size(); i++) {
+                int offset = offsets.get(i);
+                counts.computeIfAbsent(terms.get(i), t -> new int[]{0, offset})[0]++;
+            }
+            String[] sorted = counts.keySet().toArray(new String[0]);
+            int[] tf = new int[sorted.length], first = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                int[] c = counts.get(sorted[i]);
+                tf[i] = c[0];
+                first[i] = c[1];
+            }
+            return new DocEntry(sorted, tf, first, terms.size());
+        }
+
+        private static void splitQuery(String text, List<String> terms, List<Boolean> cjk) {
+            split(text, terms, cjk, new ArrayList<>(), false);
+        }
+
+        /**
+         * 切分文本：索引时每段中文都会补上末字一元词，查询时只有单字段才使用一元词；
+         * offsets 记录每个词项起始位置的 UTF-8 字节偏移
+         */
+        private static void split(String text, List<String> out, List<Boolean> cjk, List<Integer> offsets, boolean indexing) {
+            StringBuilder word = new StringBuilder();
+            int wordStart = 0;
+            int prev = -1, prevStart = 0;
+            int runLength = 0;
+            int bytes = 0;
+            for (int i = 0; i <= text.length(); ) {
+                int cp = i < text.length() ? text.codePointAt(i) : -1;
+                if (cp != -1 && isCjk(cp)) {
+                    if (word.length() > 0) { out.add(word.toString()); cjk.add(false); offsets.add(wordStart); word.setLength(0); }
+                    if (prev != -1) {
+                        out.add(new StringBuilder().appendCodePoint(prev).appendCodePoint(cp).toString());
+                        cjk.add(true);
+                        offsets.add(prevStart);
+                    }
+                    prev = cp;
+                    prevStart = bytes;
+                    runLength++;
+                } else {
+                    if (prev != -1 && (indexing || runLength == 1)) {
+                        out.add(new String(Character.toChars(prev)));
+                        cjk.add(true);
+                        offsets.add(prevStart);
+                    }
+                    prev = -1;
+                    runLength = 0;
+                    if (cp != -1 && Character.isLetterOrDigit(cp)) {
+                        if (word.length() == 0) wordStart = bytes;
+                        word.appendCodePoint(cp);
+                    } else if (word.length() > 0) {
+                        out.add(word.toString()); cjk.add(false); offsets.add(wordStart); word.setLength(0);
+                    }
+                }
+                if (cp != -1) bytes += cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+                i += cp == -1 ? 1 : Character.charCount(cp);
+            }
+        }
+
+        static boolean isCjk(int cp) {
+            Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+            return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA ||
+                    script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+        }
+    }
+
+    /**
+     * 内容摘要工具类
+     * 为每篇日记记录正文的 64 位哈希和字数，并按月把哈希异或、条数和字数累加成汇总，
+     * 对账和按日期范围统计都只需读汇总。
+     * 摘要文件（diaries.sum）与索引相同，按追加日志保存："+\t日期\t修改时间\t哈希\t字数" 或 "-\t日期"，
+     * 启动时按修改时间补齐在程序之外被修改的日记。
+     */
+    private static class DigestUtil {
+        private static final String HEADER = "#diary-digest v2";
+
+        record Digest(long mtime, long hash, int chars) {}
+
+        /** 一个月的汇总：异或与顺序无关，增删一篇只需再异或一次；chars 为正文字数 */
+        record Rollup(long hash, int count, long chars) {
+            Rollup merge(Rollup other) { return new Rollup(hash ^ other.hash, count + other.count, chars + other.chars); }
+
+            /** 对账只看条数和哈希 */
+            boolean sameEntries(Rollup other) { return other != null && hash == other.hash && count == other.count; }
+        }
+
+        /** 一段日期内的统计，没有日记时 first 和 last 为 null */
+        record RangeStats(int entries, long chars, LocalDate first, LocalDate last) {
+            static final RangeStats EMPTY = new RangeStats(0, 0, null, null);
+
+            RangeStats plus(RangeStats other) {
+                if (other.entries == 0) return this;
+                if (entries == 0) return other;
+                return new RangeStats(entries + other.entries, chars + other.chars,
+                        first.isBefore(other.first) ? first : other.first, last.isAfter(other.last) ? last : other.last);
+            }
+        }
+
+        private static final TreeMap<LocalDate, Digest> entries = new TreeMap<>();
+        private static final TreeMap<YearMonth, Rollup> months = new TreeMap<>();
+        private static int records = 0;
+
+        static synchronized void init() {
+            File file = new File(DIGEST_FILE);
+            try {
+                if (file.exists()) load(file);
+                boolean changed = catchUp();
+                if (changed || !file.exists() || records > entries.size() * 2 + 64) compact();
+            } catch (IOException e) {
+                System.out.println("⚠️ 摘要加载失败：" + e.getMessage());
+            }
+        }
+
+        private static void load(File file) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!HEADER.equals(reader.readLine())) return;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts[0].equals("+") && parts.length == 5) {
+                        put(LocalDate.parse(parts[1]), new Digest(Long.parseLong(parts[2]),
+                                Long.parseUnsignedLong(parts[3], 16), Integer.parseInt(parts[4])));
+                        records++;
+                    } else if (parts[0].equals("-") && parts.length == 2) {
+                        drop(LocalDate.parse(parts[1]));
+                        records++;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 文件损坏时丢弃已读内容，由 catchUp 全部重算
+                entries.clear(); months.clear(); records = 0;
+            }
+        }
+
+        private static boolean catchUp() throws IOException {
+            boolean changed = false;
+            for (Map.Entry<LocalDate, CatalogUtil.EntryMeta> e : CatalogUtil.descending().entrySet()) {
+                Digest digest = entries.get(e.getKey());
+                if (digest == null || digest.mtime() != e.getValue().mtime()) {
+                    String date = e.getKey().toString();
+                    String content = FileUtil.read(date);
+                    put(e.getKey(), digest(date, content == null ? "" : content, e.getValue().mtime()));
+                    changed = true;
+                }
+            }
+            for (LocalDate date : new ArrayList<>(entries.keySet())) {
+                if (!CatalogUtil.contains(date.toString())) { drop(date); changed = true; }
+            }
+            return changed;
+        }
+
+        static synchronized void update(String date, String fileContent, long mtime) {
+            Digest digest = digest(date, fileContent, mtime);
+            put(LocalDate.parse(date), digest);
+            append("+\t" + date + "\t" + mtime + "\t" + Long.toHexString(digest.hash()) + "\t" + digest.chars());
+        }
+
+        private static Digest digest(String date, String fileContent, long mtime) {
+            String body = FileUtil.body(fileContent);
+            return new Digest(mtime, hash(date, body), body.codePointCount(0, body.length()));
+        }
+
+        // 文件在程序之外被修改时重算；修改时间未变（本程序自己的写入）则跳过
+        static synchronized void refresh(String date, File file) {
+            Digest digest = entries.get(LocalDate.parse(date));
+            if (digest != null && digest.mtime() == file.lastModified()) return;
+            try {
+                String content = FileUtil.read(date);
+                if (content != null) update(date, content, file.lastModified());
+            } catch (IOException e) {
+                System.out.println("⚠️ 重新计算摘要失败：" + file.getName());
             }
         }
 
-        private static void createTable() throws SQLException {
-            String sql = "CREATE TABLE IF NOT EXISTS diaries (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                    "diary_date DATE NOT NULL UNIQUE, " +
-                    "content TEXT NOT NULL, " +
-                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                    "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute(sql);
+        static synchronized void remove(String date) {
+            if (!entries.containsKey(LocalDate.parse(date))) return;
+            drop(LocalDate.parse(date));
+            append("-\t" + date);
+        }
+
+        private static void put(LocalDate date, Digest digest) {
+            drop(date);
+            entries.put(date, digest);
+            months.merge(YearMonth.from(date), new Rollup(digest.hash(), 1, digest.chars()), Rollup::merge);
+        }
+
+        private static void drop(LocalDate date) {
+            Digest old = entries.remove(date);
+            if (old == null) return;
+            Rollup rest = months.get(YearMonth.from(date)).merge(new Rollup(old.hash(), -1, -old.chars()));
+            if (rest.count() == 0) months.remove(YearMonth.from(date));
+            else months.put(YearMonth.from(date), rest);
+        }
+
+        private static void append(String record) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(DIGEST_FILE, true), StandardCharsets.UTF_8)) {
+                writer.write(record + "\n");
+                records++;
+            } catch (IOException e) {
+                System.out.println("⚠️ 摘要写入失败：" + e.getMessage());
+                return;
+            }
+            if (records > entries.size() * 2 + 64) {
+                try { compact(); }
+                catch (IOException e) { System.out.println("⚠️ 摘要整理失败：" + e.getMessage()); }
             }
         }
 
-        static void close() {
-            if (connection != null) {
-                try { connection.close(); System.out.println("✅ 数据库连接已关闭"); }
-                catch (SQLException e) { System.out.println("❌ 关闭连接失败：" + e.getMessage()); }
+        private static void compact() throws IOException {
+            Path tmp = Paths.get(DIGEST_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER + "\n");
+                for (Map.Entry<LocalDate, Digest> e : entries.entrySet()) {
+                    writer.write("+\t" + e.getKey() + "\t" + e.getValue().mtime() + "\t" +
+                            Long.toHexString(e.getValue().hash()) + "\t" + e.getValue().chars() + "\n");
+                }
             }
+            Files.move(tmp, Paths.get(DIGEST_FILE), StandardCopyOption.REPLACE_EXISTING);
+            records = entries.size();
         }
 
-        static boolean isAvailable() { return connection != null; }
+        static synchronized Map<YearMonth, Rollup> months() { return new TreeMap<>(months); }
 
-        static void save(String date, String content) {
-            if (!isAvailable()) return;
-            try (PreparedStatement pstmt = connection.prepareStatement(
-                    "INSERT INTO diaries (diary_date, content) VALUES (?, ?) ON DUPLICATE KEY UPDATE content = ?")) {
-                pstmt.setDate(1, java.sql.Date.valueOf(date));
-                pstmt.setString(2, content.trim());
-                pstmt.setString(3, content.trim());
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                System.out.println("❌ 保存失败：" + e.getMessage());
+        /**
+         * 一段日期内的统计：整月部分直接累加月汇总，首尾不足一个月的部分逐篇累加，总开销与月数成正比
+         */
+        static synchronized RangeStats stats(UIUtil.DateRange range) {
+            int count = 0;
+            long chars = 0;
+            YearMonth firstMonth = range.firstFullMonth(), lastMonth = range.lastFullMonth();
+            if (!firstMonth.isAfter(lastMonth)) {
+                for (Rollup rollup : months.subMap(firstMonth, true, lastMonth, true).values()) {
+                    count += rollup.count();
+                    chars += rollup.chars();
+                }
+            }
+            for (UIUtil.DateRange edge : range.partialEdges()) {
+                for (Digest digest : entries.subMap(edge.from(), true, edge.to(), true).values()) {
+                    count++;
+                    chars += digest.chars();
+                }
             }
+            if (count == 0) return RangeStats.EMPTY;
+            return new RangeStats(count, chars, entries.ceilingKey(range.from()), entries.floorKey(range.to()));
         }
 
-        static String read(String date) {
-            if (!isAvailable()) return null;
-            try (PreparedStatement pstmt = connection.prepareStatement("SELECT content FROM diaries WHERE diary_date = ?")) {
-                pstmt.setDate(1, java.sql.Date.valueOf(date));
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    return rs.next() ? rs.getString("content") : null;
+        /** 范围内每月的统计，首尾不足一个月的按实际范围计算 */
+        static synchronized Map<YearMonth, RangeStats> monthly(UIUtil.DateRange range) {
+            Map<YearMonth, RangeStats> result = new TreeMap<>();
+            for (YearMonth month : months.subMap(YearMonth.from(range.from()), true, YearMonth.from(range.to()), true).keySet()) {
+                LocalDate from = range.from().isAfter(month.atDay(1)) ? range.from() : month.atDay(1);
+                LocalDate to = range.to().isBefore(month.atEndOfMonth()) ? range.to() : month.atEndOfMonth();
+                RangeStats stats = stats(new UIUtil.DateRange(from, to));
+                if (stats.entries() > 0) result.put(month, stats);
+            }
+            return result;
+        }
+
+        /** 某月每篇日记的哈希 */
+        static synchronized Map<LocalDate, Long> month(YearMonth month) {
+            Map<LocalDate, Long> hashes = new TreeMap<>();
+            entries.subMap(month.atDay(1), true, month.atEndOfMonth(), true)
+                    .forEach((date, digest) -> hashes.put(date, digest.hash()));
+            return hashes;
+        }
+
+        /**
+         * 正文哈希：SHA-256 的前 8 字节；日期一并参与计算，
+         * 否则同月两篇相同内容的异或会互相抵消
+         */
+        static long hash(String date, String body) {
+            try {
+                MessageDigest sha = MessageDigest.getInstance("SHA-256");
+                sha.update((date + "\n").getBytes(StandardCharsets.UTF_8));
+                return ByteBuffer.wrap(sha.digest(body.getBytes(StandardCharsets.UTF_8))).getLong();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * HTTP 服务模式
+     * 用 JDK 自带的 HttpServer 提供 JSON 接口，每个请求一个虚拟线程（运行在 JDK 21 以下时退回普通线程池），
+     * 每个请求有处理超时。接口：
+     *   GET    /diaries              列出日期
+     *   GET    /diaries/{date}       读取日记（返回 version）
+     *   PUT    /diaries/{date}       写入日记（请求体为正文）
+     *   DELETE /diaries/{date}       删除日记
+     * 写操作按日期加锁，不同日期并行；带 If-Match: version 时只在版本未变时写入，否则返回 409。
+     *   GET    /search?q=关键词       搜索
+     */
+    private static class ServerUtil {
+        private static final long TIMEOUT_MS = Long.getLong("diary.http.timeout", 5_000);
+        private static ExecutorService workers;
+
+        private record Response(int status, String body) {}
+
+        static void start(int port) throws IOException {
+            workers = newExecutor();
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.setExecutor(workers);
+            server.createContext("/diaries", exchange -> handle(exchange, () -> diaries(exchange)));
+            server.createContext("/search", exchange -> handle(exchange, () -> search(exchange)));
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                // 等仍在处理的请求写完，再由 DatabaseUtil.close 清空后写队列并关闭连接
+                workers.shutdown();
+                try {
+                    workers.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-            } catch (SQLException e) {
-                System.out.println("❌ 读取失败：" + e.getMessage());
-                return null;
+                DatabaseUtil.close();
+            }));
+            System.out.println("✅ 服务已启动：http://localhost:" + port + "/diaries");
+        }
+
+        private static ExecutorService newExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
             }
         }
 
-        static boolean delete(String date) {
-            if (!isAvailable()) return false;
-            try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM diaries WHERE diary_date = ?")) {
-                pstmt.setDate(1, java.sql.Date.valueOf(date));
-                return pstmt.executeUpdate() > 0;
-            } catch (SQLException e) {
-                System.out.println("❌ 删除失败：" + e.getMessage());
-                return false;
+        private static void handle(HttpExchange exchange, java.util.concurrent.Callable<Response> action) throws IOException {
+            Response response;
+            Future<Response> future = workers.submit(action);
+            try {
+                response = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 不中断工作线程：中断会关闭它正在读写的共享通道，持锁的写入也可能已经落盘
+                future.cancel(false);
+                response = error(504, "请求超时，写入可能仍会完成");
+            } catch (ExecutionException e) {
+                response = error(500, String.valueOf(e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response = error(503, "服务正在关闭");
+            }
+            byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
             }
         }
 
-        static List<String> search(String keyword) {
-            List<String> results = new ArrayList<>();
-            if (!isAvailable()) return results;
-            try (PreparedStatement pstmt = connection.prepareStatement("SELECT diary_date FROM diaries WHERE content LIKE ? ORDER BY diary_date DESC")) {
-                pstmt.setString(1, "%" + keyword + "%");
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) results.add(rs.getDate("diary_date").toString());
+        private static Response diaries(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/diaries") || path.equals("/diaries/")) {
+                if (!method.equals("GET")) return error(405, "不支持的方法");
+                // 可选参数：month=yyyy、yyyy-MM 或 yyyy-MM-dd~yyyy-MM-dd，before=yyyy-MM-dd（上一页最后一条），limit=每页条数
+                String filter = query(exchange, "month");
+                UIUtil.DateRange range = UIUtil.parseRange(filter == null ? "" : filter);
+                String before = query(exchange, "before");
+                if (range == null || (before != null && !UIUtil.isValidDate(before))) return error(400, "参数格式不正确");
+                int limit;
+                try { limit = Math.min(Math.max(1, Integer.parseInt(Objects.requireNonNullElse(query(exchange, "limit"), "" + PAGE_SIZE))), 1000); }
+                catch (NumberFormatException e) { return error(400, "limit 应为数字"); }
+
+                StringJoiner items = new StringJoiner(",", "[", "]");
+                for (LocalDate date : CatalogUtil.page(range.from(), range.to(), before == null ? null : LocalDate.parse(before), limit)) {
+                    CatalogUtil.EntryMeta meta = CatalogUtil.get(date.toString());
+                    items.add("{\"date\":\"" + date + "\",\"size\":" + (meta == null ? 0 : meta.size()) + "}");
                 }
-            } catch (SQLException e) {
-                System.out.println("❌ 搜索失败：" + e.getMessage());
+                return new Response(200, items.toString());
+            }
+
+            String date = path.substring("/diaries/".length());
+            if (!UIUtil.isValidDate(date)) return error(400, "日期格式应为 yyyy-MM-dd");
+            switch (method) {
+                case "GET": {
+                    String content = FileUtil.read(date);
+                    if (content == null && DatabaseUtil.isAvailable()) content = DatabaseUtil.read(date);
+                    if (content == null) return error(404, "没有这一天的日记");
+                    return new Response(200, "{\"date\":\"" + date + "\",\"version\":" + LockUtil.version(date) +
+                            ",\"content\":" + json(content) + "}");
+                }
+                case "PUT": {
+                    String content;
+                    try (InputStream in = exchange.getRequestBody()) {
+                        content = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+                    }
+                    if (content.isEmpty()) return error(400, "内容不能为空");
+                    Long expected = expectedVersion(exchange);
+                    if (expected == null) return error(400, "If-Match 应为版本号");
+                    switch (LockUtil.save(date, content, expected)) {
+                        case CONFLICT: return error(409, "日记已被修改，请重新读取");
+                        case FAILED: return error(500, "保存失败");
+                        default: return new Response(200, "{\"date\":\"" + date + "\",\"version\":" + LockUtil.version(date) +
+                                ",\"saved\":true}");
+                    }
+                }
+                case "DELETE": {
+                    Long expected = expectedVersion(exchange);
+                    if (expected == null) return error(400, "If-Match 应为版本号");
+                    switch (LockUtil.delete(date, expected)) {
+                        case CONFLICT: return error(409, "日记已被修改，请重新读取");
+                        case FAILED: return error(404, "没有这一天的日记");
+                        default: return new Response(200, "{\"date\":\"" + date + "\",\"deleted\":true}");
+                    }
+                }
+                default:
+                    return error(405, "不支持的方法");
             }
-            return results;
         }
 
-        static List<String> getAllDates() {
-            List<String> dates = new ArrayList<>();
-            if (!isAvailable()) return dates;
-            try (Statement stmt = connection.createStatement();
-                 ResultSet rs = stmt.executeQuery("SELECT diary_date FROM diaries ORDER BY diary_date DESC")) {
-                while (rs.next()) dates.add(rs.getDate("diary_date").toString());
-            } catch (SQLException e) {
-                System.out.println("❌ 获取列表失败：" + e.getMessage());
+        private static Response search(HttpExchange exchange) {
+            String keyword = query(exchange, "q");
+            if (keyword == null || keyword.isBlank()) return error(400, "缺少参数 q");
+            keyword = keyword.trim().toLowerCase();
+            StringJoiner files = new StringJoiner(",", "[", "]");
+            RankUtil.Result result = FileUtil.searchInFiles(keyword, PAGE_SIZE);
+            for (RankUtil.Hit hit : result.hits()) {
+                files.add("{\"date\":" + json(hit.date()) + ",\"score\":" + String.format(Locale.ROOT, "%.4f", hit.score()) +
+                        ",\"snippet\":" + json(Objects.requireNonNullElse(hit.snippet(), "")) + "}");
             }
-            return dates;
+            StringJoiner database = new StringJoiner(",", "[", "]");
+            if (DatabaseUtil.isAvailable()) {
+                DatabaseUtil.SearchPage page = DatabaseUtil.search(keyword, null, PAGE_SIZE);
+                for (int i = 0; i < page.dates().size(); i++) {
+                    database.add("{\"date\":" + json(page.dates().get(i)) + ",\"snippet\":" + json(page.snippets().get(i)) + "}");
+                }
+            }
+            return new Response(200, "{\"total\":" + result.total() + ",\"files\":" + files + ",\"database\":" + database + "}");
+        }
+
+        private static String query(HttpExchange exchange, String name) {
+            String raw = exchange.getRequestURI().getRawQuery();
+            if (raw == null) return null;
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && pair.substring(0, eq).equals(name))
+                    return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+            return null;
+        }
+
+        // If-Match 中的版本号，没有时不检查版本；格式不对时返回 null
+        private static Long expectedVersion(HttpExchange exchange) {
+            String value = exchange.getRequestHeaders().getFirst("If-Match");
+            if (value == null) return LockUtil.ANY;
+            try {
+                return Long.parseLong(value.replace("\"", "").trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static Response error(int status, String message) {
+            return new Response(status, "{\"error\":" + json(message) + "}");
+        }
+
+        static String json(String value) {
+            StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                    }
+                }
+            }
+            return sb.append('"').toString();
         }
     }
 
     /**
-     * 文件操作工具类
+     * 运行指标
+     * 每种操作记录次数、错误数、读写字节数和延迟分布：计数用 LongAdder，延迟按对数分桶计入 AtomicLongArray，
+     * 记录一次既不加锁也不分配对象。通过 JMX（DiaryManager:type=Metrics,name=操作名）查看，
+     * 或用 -Ddiary.metrics.log=秒数 定期输出汇总。
      */
-    private static class FileUtil {
-        static void initDir() {
-            File dir = new File(DIARY_DIR);
-            if (!dir.exists() && dir.mkdir()) System.out.println("✅ 创建文件夹：" + DIARY_DIR);
+    private static class Metrics {
+        private static final long LOG_SECONDS = Long.getLong("diary.metrics.log", 0);
+
+        static final Metric FILE_SAVE = new Metric("file.save");
+        static final Metric FILE_READ = new Metric("file.read");
+        static final Metric FILE_DELETE = new Metric("file.delete");
+        static final Metric FILE_SEARCH = new Metric("file.search");
+        static final Metric DB_WRITE = new Metric("db.write");
+        static final Metric DB_READ = new Metric("db.read");
+        static final Metric DB_SEARCH = new Metric("db.search");
+        static final Metric DB_LIST = new Metric("db.list");
+        private static final Metric[] ALL = {FILE_SAVE, FILE_READ, FILE_DELETE, FILE_SEARCH,
+                DB_WRITE, DB_READ, DB_SEARCH, DB_LIST};
+
+        /** JMX 看到的属性，延迟单位为毫秒 */
+        public interface MetricMBean {
+            long getCount();
+            long getErrors();
+            long getBytes();
+            double getMeanMillis();
+            double getP50Millis();
+            double getP99Millis();
+            double getMaxMillis();
         }
 
-        static File[] getSortedFiles() {
-            File[] files = new File(DIARY_DIR).listFiles((d, n) -> n.startsWith("日记_") && n.endsWith(".txt"));
-            if (files == null || files.length == 0) return null;
-            Arrays.sort(files, (f1, f2) ->
-                    f2.getName().substring(3, f2.getName().length() - 4)
-                            .compareTo(f1.getName().substring(3, f1.getName().length() - 4)));
-            return files;
+        static class Metric implements MetricMBean {
+            // 每个 2 的幂区间再分 8 个子桶，记录值与真实值的误差不超过 12.5%
+            private static final int SUB_BITS = 3;
+
+            private final String name;
+            private final LongAdder count = new LongAdder();
+            private final LongAdder errors = new LongAdder();
+            private final LongAdder bytes = new LongAdder();
+            private final LongAdder totalNanos = new LongAdder();
+            private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+            private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BITS);
+
+            Metric(String name) { this.name = name; }
+
+            /** 记录一次成功的操作，startNanos 为操作开始时的 System.nanoTime() */
+            void record(long startNanos, long byteCount) {
+                long nanos = System.nanoTime() - startNanos;
+                count.increment();
+                bytes.add(byteCount);
+                totalNanos.add(nanos);
+                maxNanos.accumulate(nanos);
+                buckets.incrementAndGet(bucket(nanos));
+            }
+
+            void error(long startNanos) {
+                errors.increment();
+                record(startNanos, 0);
+            }
+
+            private static int bucket(long nanos) {
+                if (nanos < (1 << SUB_BITS)) return (int) Math.max(nanos, 0);
+                int exp = 63 - Long.numberOfLeadingZeros(nanos);
+                int sub = (int) (nanos >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+                return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+            }
+
+            // 桶内的最大值
+            private static long upperBound(int bucket) {
+                if (bucket < (1 << SUB_BITS)) return bucket;
+                int shift = (bucket >> SUB_BITS) - 1;
+                long lower = (long) ((1 << SUB_BITS) + (bucket & ((1 << SUB_BITS) - 1))) << shift;
+                return lower + (1L << shift) - 1;
+            }
+
+            private double percentile(double q) {
+                long total = 0;
+                for (int i = 0; i < buckets.length(); i++) total += buckets.get(i);
+                if (total == 0) return 0;
+                long rank = (long) Math.ceil(q * total), seen = 0;
+                for (int i = 0; i < buckets.length(); i++) {
+                    seen += buckets.get(i);
+                    if (seen >= rank) return Math.min(upperBound(i), maxNanos.get()) / 1e6;
+                }
+                return maxNanos.get() / 1e6;
+            }
+
+            public long getCount() { return count.sum(); }
+            public long getErrors() { return errors.sum(); }
+            public long getBytes() { return bytes.sum(); }
+            public double getMeanMillis() { long n = count.sum(); return n == 0 ? 0 : totalNanos.sum() / 1e6 / n; }
+            public double getP50Millis() { return percentile(0.50); }
+            public double getP99Millis() { return percentile(0.99); }
+            public double getMaxMillis() { return maxNanos.get() / 1e6; }
+
+            @Override
+            public String toString() {
+                return String.format("%s %d 次 错误 %d p50 %.3fms p99 %.3fms max %.3fms %s",
+                        name, getCount(), getErrors(), getP50Millis(), getP99Millis(), getMaxMillis(), formatBytes(getBytes()));
+            }
         }
 
-        static boolean save(String date, String content, boolean withHeader) {
-            String filename = DIARY_DIR + "/日记_" + date + ".txt";
-            String fileContent = withHeader ? "📅 日期：" + date + "\n════════════════════════════════════════\n" + content : content;
-            try (FileWriter writer = new FileWriter(filename)) {
-                writer.write(fileContent);
-                return true;
-            } catch (IOException e) {
-                System.out.println("❌ 保存文件失败：" + e.getMessage());
-                return false;
+        /** 注册 MBean，按需启动定期输出 */
+        static void init() {
+            try {
+                for (Metric metric : ALL) {
+                    ObjectName name = new ObjectName("DiaryManager:type=Metrics,name=" + metric.name);
+                    if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metric, MetricMBean.class), name);
+                }
+            } catch (JMException e) {
+                System.out.println("⚠️ 注册 JMX 指标失败：" + e.getMessage());
+            }
+            if (LOG_SECONDS > 0) {
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "diary-metrics");
+                    t.setDaemon(true);
+                    return t;
+                }).scheduleAtFixedRate(Metrics::log, LOG_SECONDS, LOG_SECONDS, TimeUnit.SECONDS);
             }
         }
 
-        static String getDateFromFilename(String filename) {
-            return filename.substring(3, filename.length() - 4);
+        // 只输出有过操作的指标
+        static void log() {
+            for (Metric metric : ALL) {
+                if (metric.getCount() > 0) System.out.println("📈 " + metric);
+            }
         }
 
-        static List<String> searchInFiles(String keyword) {
-            List<String> results = new ArrayList<>();
-            File[] files = getSortedFiles();
-            if (files == null) return results;
-
-            for (File file : files) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (line.toLowerCase().contains(keyword.toLowerCase())) {
-                            results.add(getDateFromFilename(file.getName()));
-                            break;
-                        }
+        private static String formatBytes(long bytes) {
+            if (bytes < 1024) return bytes + "B";
+            if (bytes < 1024 * 1024) return String.format("%.1fKB", bytes / 1024.0);
+            return String.format("%.1fMB", bytes / 1024.0 / 1024);
+        }
+
+        /** 字符串按 UTF-8 编码后的字节数，不需要真的编码 */
+        static long utf8Length(CharSequence text) {
+            long length = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) length++;
+                else if (c < 0x800) length += 2;
+                else if (Character.isHighSurrogate(c)) { length += 4; i++; }
+                else length += 3;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * 性能基准工具类
+     * bench 命令为每个规模启动一个子 JVM，在临时目录中生成合成的中英文日记，
+     * 对保存、读取、列表和搜索分别预热后按时间采样，输出吞吐量和 p50/p99/max 延迟。
+     * 只有显式指定 -Ddiary.db.url（例如 H2 的 MySQL 兼容模式）时才测试数据库，避免写入真实的日记库。
+     */
+    private static class BenchUtil {
+        private static final long WARMUP_MS = Long.getLong("diary.bench.warmup", 2) * 1000;
+        private static final long MEASURE_MS = Long.getLong("diary.bench.time", 5) * 1000;
+        private static final int MAX_SAMPLES = 1_000_000;
+        private static final LocalDate FIRST_DAY = LocalDate.of(2000, 1, 1);
+        private static final String[] CN_WORDS = {"今天", "天气", "很好", "上班", "开会", "项目", "代码", "学习", "朋友", "晚饭",
+                "跑步", "读书", "电影", "周末", "旅行", "家人", "咖啡", "下雨", "地铁", "加班", "心情", "公园", "音乐", "散步"};
+        private static final String[] EN_WORDS = {"meeting", "project", "coffee", "running", "weather", "release", "review",
+                "dinner", "travel", "weekend", "book", "music", "java", "database", "index", "deadline"};
+
+        private interface Op {
+            void run(Random random) throws Exception;
+        }
+
+        /** 父进程：逐个规模启动子进程，透传 diary.* 系统属性 */
+        static void fork(String sizes) {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            for (String size : sizes.split(",")) {
+                Path dir = null;
+                try {
+                    dir = Files.createTempDirectory("diary-bench-");
+                    List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+                    for (String name : System.getProperties().stringPropertyNames()) {
+                        if (name.startsWith("diary.")) command.add("-D" + name + "=" + System.getProperty(name));
                     }
+                    command.addAll(List.of(DiaryManager.class.getName(), "bench-run", size.trim()));
+                    int exit = new ProcessBuilder(command).directory(dir.toFile()).inheritIO().start().waitFor();
+                    if (exit != 0) System.out.println("❌ 规模 " + size + " 的基准测试异常退出：" + exit);
                 } catch (IOException e) {
-                    System.out.println("❌ 读取失败：" + file.getName());
+                    System.out.println("❌ 启动基准测试失败：" + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    if (dir != null) deleteTree(dir);
+                }
+            }
+        }
+
+        private static void deleteTree(Path dir) {
+            try (java.util.stream.Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                System.out.println("⚠️ 清理临时目录失败：" + dir);
+            }
+        }
+
+        /** 子进程：在当前（临时）目录中生成数据并测量 */
+        static void run(int size) {
+            if (System.getProperty("diary.db.url") != null) DatabaseUtil.init();
+            FileUtil.initDir();
+            try {
+                CatalogUtil.init();
+            } catch (IOException e) {
+                System.out.println("❌ 打开分段存储失败：" + e.getMessage());
+                return;
+            }
+            IndexUtil.init();
+            DigestUtil.init();
+
+            System.out.println("\n📊 规模 " + size + " 篇（存储 " + STORAGE_MODE + "，搜索 " + SEARCH_MODE +
+                    (COMPRESS ? "，压缩" : "") + (DatabaseUtil.isAvailable() ? "，数据库 " + DB_URL : "") + "）");
+            populate(size);
+
+            Map<String, Op> ops = new LinkedHashMap<>();
+            ops.put("save", r -> FileUtil.save(date(r, size), content(r, size), true));
+            ops.put("read", r -> {
+                String date = date(r, size);
+                ContentCache.invalidate(date);
+                FileUtil.read(date);
+            });
+            ops.put("list", r -> CatalogUtil.page(LocalDate.MIN, LocalDate.MAX, null, PAGE_SIZE));
+            ops.put("search", r -> FileUtil.searchInFiles(word(r), PAGE_SIZE));
+            ops.put("search-rare", r -> FileUtil.searchInFiles("编号" + r.nextInt(size), PAGE_SIZE));
+            if (DatabaseUtil.isAvailable()) {
+                ops.put("db-save", r -> DatabaseUtil.save(date(r, size), content(r, size)));
+                ops.put("db-read", r -> DatabaseUtil.read(date(r, size)));
+                ops.put("db-list", r -> DatabaseUtil.listPage(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31), null, PAGE_SIZE));
+                ops.put("db-search", r -> DatabaseUtil.search(word(r), null, PAGE_SIZE));
+            }
+            ops.forEach((name, op) -> measure(name, op));
+            DatabaseUtil.close();
+        }
+
+        // 生成数据本身也是一次批量写入测试
+        private static void populate(int size) {
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            List<WriteBehind.PendingWrite> chunk = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                String date = FIRST_DAY.plusDays(i).toString();
+                String content = content(random, i);
+                FileUtil.save(date, content, true);
+                if (DatabaseUtil.isAvailable()) chunk.add(new WriteBehind.PendingWrite(date, content));
+                if (chunk.size() == 500 || (i == size - 1 && !chunk.isEmpty())) {
+                    try { DatabaseUtil.saveAll(chunk); }
+                    catch (SQLException e) { System.out.println("❌ 写入数据库失败：" + e.getMessage()); }
+                    chunk.clear();
+                }
+            }
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("生成 %d 篇用时 %d ms（%.0f 篇/秒）%n", size, ms, size * 1000.0 / Math.max(ms, 1));
+        }
+
+        private static void measure(String name, Op op) {
+            Random random = new Random(name.hashCode());
+            try {
+                long warmupEnd = System.nanoTime() + WARMUP_MS * 1_000_000;
+                while (System.nanoTime() < warmupEnd) op.run(random);
+
+                long[] samples = new long[1024];
+                int count = 0;
+                long start = System.nanoTime();
+                long end = start + MEASURE_MS * 1_000_000;
+                do {
+                    long t0 = System.nanoTime();
+                    op.run(random);
+                    if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                    samples[count++] = System.nanoTime() - t0;
+                } while (System.nanoTime() < end && count < MAX_SAMPLES);
+                long elapsed = System.nanoTime() - start;
+
+                Arrays.sort(samples, 0, count);
+                System.out.printf("%-12s %10.1f ops/s   p50 %9.3f ms   p99 %9.3f ms   max %9.3f ms   (%d 次)%n",
+                        name, count * 1e9 / elapsed, samples[(int) (count * 0.50)] / 1e6,
+                        samples[Math.min(count - 1, (int) (count * 0.99))] / 1e6, samples[count - 1] / 1e6, count);
+            } catch (Exception e) {
+                System.out.println("❌ " + name + " 失败：" + e.getMessage());
+            }
+        }
+
+        private static String date(Random random, int size) {
+            return FIRST_DAY.plusDays(random.nextInt(size)).toString();
+        }
+
+        private static String word(Random random) {
+            return random.nextBoolean() ? CN_WORDS[random.nextInt(CN_WORDS.length)] : EN_WORDS[random.nextInt(EN_WORDS.length)];
+        }
+
+        /** 合成日记：十来句中英文混排，每篇带一个唯一的编号用于低频词搜索 */
+        private static String content(Random random, int id) {
+            StringBuilder sb = new StringBuilder("编号" + id + "\n");
+            int sentences = 8 + random.nextInt(8);
+            for (int i = 0; i < sentences; i++) {
+                int words = 5 + random.nextInt(8);
+                for (int j = 0; j < words; j++) {
+                    if (random.nextInt(4) == 0) sb.append(' ').append(EN_WORDS[random.nextInt(EN_WORDS.length)]).append(' ');
+                    else sb.append(CN_WORDS[random.nextInt(CN_WORDS.length)]);
                 }
+                sb.append(random.nextBoolean() ? "。" : "！\n");
             }
-            return results;
+            return sb.toString();
         }
     }
 
@@ -183,7 +3471,10 @@ public class DiaryManager {
             System.out.println("3. 🔍 搜索日记");
             System.out.println("4. ✏️ 修改日记");
             System.out.println("5. 🗑️ 删除日记");
-            System.out.println("6. 🚪 退出系统");
+            System.out.println("6. 🔄 切换数据库/文件模式");
+            System.out.println("7. 🔁 检查文件与数据库是否一致");
+            System.out.println("8. 📊 日记统计");
+            System.out.println("9. 🚪 退出系统");
             System.out.print("👉 请选择操作：");
         }
 
@@ -212,6 +3503,63 @@ public class DiaryManager {
             return LocalDate.now().format(DATE_FORMATTER);
         }
 
+        /** 日期范围（含两端） */
+        record DateRange(LocalDate from, LocalDate to) {
+            /** 范围内第一个完整的月份；没有完整月份时晚于 lastFullMonth */
+            YearMonth firstFullMonth() {
+                YearMonth month = YearMonth.from(from);
+                return from.getDayOfMonth() == 1 ? month : month.plusMonths(1);
+            }
+
+            YearMonth lastFullMonth() {
+                YearMonth month = YearMonth.from(to);
+                return to.equals(month.atEndOfMonth()) ? month : month.minusMonths(1);
+            }
+
+            /** 首尾不足一个月的部分，每段都在同一个月内 */
+            List<DateRange> partialEdges() {
+                List<DateRange> edges = new ArrayList<>();
+                YearMonth first = firstFullMonth(), last = lastFullMonth();
+                if (first.isAfter(last)) {
+                    // 没有完整的月份时最多跨两个月
+                    LocalDate end = YearMonth.from(from).atEndOfMonth();
+                    if (end.isBefore(to)) {
+                        edges.add(new DateRange(from, end));
+                        edges.add(new DateRange(end.plusDays(1), to));
+                    } else {
+                        edges.add(this);
+                    }
+                    return edges;
+                }
+                if (from.isBefore(first.atDay(1))) edges.add(new DateRange(from, first.atDay(1).minusDays(1)));
+                if (to.isAfter(last.atEndOfMonth())) edges.add(new DateRange(last.atEndOfMonth().plusDays(1), to));
+                return edges;
+            }
+        }
+
+        /**
+         * 解析筛选条件：空串为全部，yyyy 为整年，yyyy-MM 为整月，yyyy-MM-dd~yyyy-MM-dd 为两个日期之间，格式不对返回 null
+         */
+        static DateRange parseRange(String input) {
+            try {
+                if (input.isEmpty()) return new DateRange(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31));
+                if (input.contains("~")) {
+                    String[] parts = input.split("~", 2);
+                    LocalDate from = LocalDate.parse(parts[0].trim(), DATE_FORMATTER);
+                    LocalDate to = LocalDate.parse(parts[1].trim(), DATE_FORMATTER);
+                    return from.isAfter(to) ? null : new DateRange(from, to);
+                }
+                if (input.matches("\\d{4}")) {
+                    int year = Integer.parseInt(input);
+                    return new DateRange(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+                }
+                YearMonth month = YearMonth.parse(input);
+                return new DateRange(month.atDay(1), month.atEndOfMonth());
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
         static boolean isValidDate(String dateStr) {
             try { LocalDate.parse(dateStr, DATE_FORMATTER); return true; }
             catch (Exception e) { return false; }
@@ -238,9 +3586,9 @@ public class DiaryManager {
         UIUtil.showTitle("📝 写新日记");
         String date = UIUtil.getDateInput(scanner);
 
-        // 检查是否已存在
-        boolean exists = new File(DIARY_DIR + "/日记_" + date + ".txt").exists() ||
-                (DatabaseUtil.isAvailable() && DatabaseUtil.read(date) != null);
+        // 检查是否已存在，记下版本，保存时确认期间没有其他写入者
+        long version = LockUtil.version(date);
+        boolean exists = version != 0 && version != LockUtil.ANY;
 
         if (exists) {
             System.out.print("⚠️ " + date + " 已有日记，是否覆盖？（Y/N）: ");
@@ -254,54 +3602,74 @@ public class DiaryManager {
             System.out.println("❌ 内容不能为空"); return;
         }
 
-        if (FileUtil.save(date, content, true))
+        LockUtil.Outcome outcome = LockUtil.save(date, content, version);
+        if (outcome == LockUtil.Outcome.CONFLICT) {
+            if (!confirmOverwrite(scanner, date, "覆盖")) {
+                System.out.println("❌ 取消写日记"); return;
+            }
+            outcome = LockUtil.save(date, content, LockUtil.ANY);
+        }
+        if (outcome == LockUtil.Outcome.OK) {
             System.out.println("✅ 日记保存到文件成功！");
-        if (DatabaseUtil.isAvailable()) {
-            DatabaseUtil.save(date, content);
-            System.out.println("✅ 日记已保存到数据库");
+            if (DatabaseUtil.isAvailable()) System.out.println("✅ 日记已提交数据库同步");
         }
     }
 
-    private static void listDiaries() {
+    private static void listDiaries(Scanner scanner) {
         UIUtil.showTitle("📋 所有日记列表");
+        System.out.print("📅 输入年份（yyyy）、年月（yyyy-MM）或日期范围（yyyy-MM-dd~yyyy-MM-dd）筛选，直接回车显示全部：");
+        UIUtil.DateRange range = UIUtil.parseRange(scanner.nextLine().trim());
+        if (range == null) {
+            System.out.println("❌ 格式不正确！"); return;
+        }
 
         int total = 0;
         if (DatabaseUtil.isAvailable()) {
-            List<String> dates = DatabaseUtil.getAllDates();
-            if (!dates.isEmpty()) {
-                System.out.println("📊 数据库中的日记（按日期倒序排列）:");
-                System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-                System.out.println("序号\t日期");
-                System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-                for (int i = 0; i < dates.size(); i++)
-                    System.out.printf("%-4d\t%-12s%n", i + 1, dates.get(i));
-                System.out.println("📈 共 " + dates.size() + " 篇日记");
-                total += dates.size();
-            }
-        }
-
-        File[] files = FileUtil.getSortedFiles();
-        if (files != null && files.length > 0) {
-            String title = DatabaseUtil.isAvailable() ? "\n📁 文件系统中的日记:" : "📁 所有日记:";
-            System.out.println(title);
-            System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-            System.out.println("序号\t日期\t\t文件名");
-            System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-
-            for (int i = 0; i < files.length; i++) {
-                String name = files[i].getName();
-                String date = FileUtil.getDateFromFilename(name);
-                long size = files[i].length();
-                String sizeStr = size > 1024 ? String.format("%.1fKB", size / 1024.0) : size + "B";
-                System.out.printf("%-4d\t%-12s\t%s (%-6s)%n", i + 1, date, name, sizeStr);
-            }
-            System.out.println("📈 共 " + files.length + " 篇日记");
-            total += DatabaseUtil.isAvailable() ? 0 : files.length;
+            total += showPages(scanner, "📊 数据库中的日记（按日期倒序排列）:", "序号\t日期",
+                    before -> DatabaseUtil.listPage(range.from(), range.to(), before, PAGE_SIZE),
+                    (i, date) -> System.out.printf("%-4d\t%-12s%n", i, date));
         }
 
+        String title = DatabaseUtil.isAvailable() ? "\n📁 文件系统中的日记:" : "📁 所有日记:";
+        total += showPages(scanner, title, "序号\t日期\t\t文件名",
+                before -> CatalogUtil.page(range.from(), range.to(), before, PAGE_SIZE),
+                (i, date) -> {
+                    CatalogUtil.EntryMeta meta = CatalogUtil.get(date.toString());
+                    long size = meta == null ? 0 : meta.size();
+                    String sizeStr = size > 1024 ? String.format("%.1fKB", size / 1024.0) : size + "B";
+                    System.out.printf("%-4d\t%-12s\t%s (%-6s)%n", i, date, FileUtil.locate(date.toString()), sizeStr);
+                });
+
         if (total == 0) System.out.println("📭 暂无日记");
     }
 
+    /**
+     * 逐页显示，每次只取一页；返回已显示的条数
+     */
+    private static int showPages(Scanner scanner, String title, String header,
+                                 java.util.function.Function<LocalDate, List<LocalDate>> fetch,
+                                 java.util.function.BiConsumer<Integer, LocalDate> printRow) {
+        int shown = 0;
+        LocalDate before = null;
+        while (true) {
+            List<LocalDate> page = fetch.apply(before);
+            if (page.isEmpty()) break;
+            if (shown == 0) {
+                System.out.println(title);
+                System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
+                System.out.println(header);
+                System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
+            }
+            for (LocalDate date : page) printRow.accept(++shown, date);
+            if (page.size() < PAGE_SIZE) break;
+            before = page.get(page.size() - 1);
+            System.out.print("👉 输入 n 查看下一页，其他键结束：");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("n")) break;
+        }
+        if (shown > 0) System.out.println("📈 已显示 " + shown + " 篇日记");
+        return shown;
+    }
+
     private static void searchDiaries(Scanner scanner) {
         UIUtil.showTitle("🔍 搜索日记");
         System.out.print("🔍 请输入要搜索的关键词：");
@@ -318,21 +3686,58 @@ public class DiaryManager {
         boolean found = false;
 
         if (DatabaseUtil.isAvailable()) {
-            List<String> dbResults = DatabaseUtil.search(keyword);
-            if (!dbResults.isEmpty()) {
-                System.out.println("💾 数据库中找到 " + dbResults.size() + " 篇：");
-                dbResults.forEach(date -> System.out.println("   • " + date));
-                resultCount += dbResults.size();
+            // 压缩行没有相关度，在有分数的结果取完后按日期倒序补在同一个列表里
+            DatabaseUtil.SearchPage packed = DatabaseUtil.searchCompressed(keyword);
+            DatabaseUtil.SearchPage page = DatabaseUtil.search(keyword, null, PAGE_SIZE);
+            Set<String> shown = new HashSet<>();
+            int nextPacked = 0;
+            while (true) {
+                List<String> dates = new ArrayList<>();
+                List<String> snippets = new ArrayList<>();
+                for (int i = 0; i < page.dates().size(); i++) {
+                    if (shown.add(page.dates().get(i))) {
+                        dates.add(page.dates().get(i));
+                        snippets.add(page.snippets().get(i));
+                    }
+                }
+                while (page.next() == null && dates.size() < PAGE_SIZE && nextPacked < packed.dates().size()) {
+                    if (shown.add(packed.dates().get(nextPacked))) {
+                        dates.add(packed.dates().get(nextPacked));
+                        snippets.add(packed.snippets().get(nextPacked));
+                    }
+                    nextPacked++;
+                }
+                if (dates.isEmpty()) break;
+                if (!found) System.out.println("💾 数据库中的结果（按相关度排序）：");
+                for (int i = 0; i < dates.size(); i++) {
+                    System.out.println("   • " + dates.get(i));
+                    if (!snippets.get(i).isEmpty()) System.out.println("     " + snippets.get(i));
+                }
+                resultCount += dates.size();
                 found = true;
+                if (page.next() == null && nextPacked >= packed.dates().size()) break;
+                System.out.print("👉 输入 n 查看下一页，其他键继续：");
+                if (!scanner.nextLine().trim().equalsIgnoreCase("n")) break;
+                page = page.next() == null
+                        ? new DatabaseUtil.SearchPage(List.of(), List.of(), null)
+                        : DatabaseUtil.search(keyword, page.next(), PAGE_SIZE);
             }
         }
 
-        List<String> fileResults = FileUtil.searchInFiles(keyword);
-        if (!fileResults.isEmpty()) {
-            System.out.println((DatabaseUtil.isAvailable() ? "\n📁 文件系统中" : "📁") +
-                    "找到 " + fileResults.size() + " 篇：");
-            fileResults.forEach(date -> System.out.println("   • " + date));
-            resultCount += fileResults.size();
+        RankUtil.Result fileResults = FileUtil.searchInFiles(keyword, PAGE_SIZE);
+        if (!fileResults.hits().isEmpty()) {
+            String where = DatabaseUtil.isAvailable() ? "\n📁 文件系统中" : "📁";
+            if (fileResults.exact() && fileResults.total() <= fileResults.hits().size()) {
+                System.out.println(where + "找到 " + fileResults.total() + " 篇（按相关度排序）：");
+            } else {
+                System.out.println(where + (fileResults.exact() ? "找到 " : "最多 ") + fileResults.total() +
+                        " 篇，显示相关度最高的 " + fileResults.hits().size() + " 篇：");
+            }
+            for (RankUtil.Hit hit : fileResults.hits()) {
+                System.out.printf("   • %s  (%.2f)%n", hit.date(), hit.score());
+                if (hit.snippet() != null && !hit.snippet().isEmpty()) System.out.println("     " + hit.snippet());
+            }
+            resultCount += fileResults.exact() ? fileResults.total() : fileResults.hits().size();
             found = true;
         }
 
@@ -344,14 +3749,15 @@ public class DiaryManager {
         UIUtil.showTitle("✏️ 修改日记");
         String date = selectDiary(scanner, "修改");
         if (date == null) return;
+        long version = LockUtil.version(date);
 
         // 显示原内容
         System.out.println("\n📄 原日记内容：");
         System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-        File file = new File(DIARY_DIR + "/日记_" + date + ".txt");
-        if (file.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                reader.lines().limit(5).forEach(System.out::println);
+        if (CatalogUtil.contains(date)) {
+            try {
+                String preview = FileUtil.preview(date);
+                if (preview != null) System.out.println(preview);
             } catch (IOException e) { System.out.println("❌ 读取失败：" + e.getMessage()); }
         }
         System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
@@ -366,11 +3772,16 @@ public class DiaryManager {
             System.out.println("❌ 内容不能为空"); return;
         }
 
-        if (FileUtil.save(date, newContent, true))
+        LockUtil.Outcome outcome = LockUtil.save(date, newContent, version);
+        if (outcome == LockUtil.Outcome.CONFLICT) {
+            if (!confirmOverwrite(scanner, date, "覆盖")) {
+                System.out.println("❌ 取消修改"); return;
+            }
+            outcome = LockUtil.save(date, newContent, LockUtil.ANY);
+        }
+        if (outcome == LockUtil.Outcome.OK) {
             System.out.println("✅ 文件修改成功！");
-        if (DatabaseUtil.isAvailable()) {
-            DatabaseUtil.save(date, newContent);
-            System.out.println("✅ 数据库修改成功！");
+            if (DatabaseUtil.isAvailable()) System.out.println("✅ 修改已提交数据库同步");
         }
     }
 
@@ -378,13 +3789,14 @@ public class DiaryManager {
         UIUtil.showTitle("🗑️ 删除日记");
         String date = selectDiary(scanner, "删除");
         if (date == null) return;
+        long version = LockUtil.version(date);
 
-        File file = new File(DIARY_DIR + "/日记_" + date + ".txt");
-        if (file.exists()) {
+        if (CatalogUtil.contains(date)) {
             System.out.println("\n⚠️ 要删除的日记摘要：");
             System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                reader.lines().limit(5).forEach(System.out::println);
+            try {
+                String preview = FileUtil.preview(date);
+                if (preview != null) System.out.println(preview);
             } catch (IOException e) { System.out.println("❌ 读取失败：" + e.getMessage()); }
             System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━");
         }
@@ -394,29 +3806,93 @@ public class DiaryManager {
             System.out.println("❌ 取消删除"); return;
         }
 
-        boolean deleted = false;
-        if (file.exists() && file.delete()) {
-            System.out.println("✅ 文件删除成功");
-            deleted = true;
+        LockUtil.Outcome outcome = LockUtil.delete(date, version);
+        if (outcome == LockUtil.Outcome.CONFLICT) {
+            if (!confirmOverwrite(scanner, date, "删除")) {
+                System.out.println("❌ 取消删除"); return;
+            }
+            outcome = LockUtil.delete(date, LockUtil.ANY);
+        }
+        if (outcome != LockUtil.Outcome.OK) {
+            System.out.println("⚠️ 没有进行任何删除操作"); return;
+        }
+        if (DatabaseUtil.isAvailable()) System.out.println("✅ 数据库删除已提交同步");
+        System.out.println("✅ 删除完成");
+    }
+
+    /** 保存前发现日记在编辑期间已被其他写入者修改，询问是否仍然继续 */
+    private static boolean confirmOverwrite(Scanner scanner, String date, String action) {
+        System.out.print("⚠️ " + date + " 的日记在此期间已被修改，是否仍然" + action + "？（Y/N）: ");
+        return scanner.nextLine().toLowerCase().matches("y|是");
+    }
+
+    private static void checkSync(Scanner scanner) {
+        UIUtil.showTitle("🔁 一致性检查");
+        long start = System.currentTimeMillis();
+        List<SyncUtil.MonthDiff> diffs = SyncUtil.diff();
+        if (diffs == null) {
+            System.out.println("❌ 数据库不可用，无法检查"); return;
+        }
+        if (diffs.isEmpty()) {
+            System.out.println("✅ 文件与数据库一致（用时 " + (System.currentTimeMillis() - start) + "ms）"); return;
+        }
+        System.out.println("⚠️ 有 " + diffs.size() + " 个月不一致：");
+        SyncUtil.print(diffs);
+        System.out.print("👉 是否修复？（内容不同时以文件为准）（Y/N）: ");
+        if (!scanner.nextLine().toLowerCase().matches("y|是")) {
+            System.out.println("❌ 取消修复"); return;
+        }
+        System.out.println("✅ 已修复 " + SyncUtil.repair(diffs) + " 篇日记");
+    }
+
+    private static void showStats(Scanner scanner) {
+        UIUtil.showTitle("📊 日记统计");
+        System.out.print("📅 输入年份（yyyy）、年月（yyyy-MM）或日期范围（yyyy-MM-dd~yyyy-MM-dd），直接回车统计全部：");
+        UIUtil.DateRange range = UIUtil.parseRange(scanner.nextLine().trim());
+        if (range == null) {
+            System.out.println("❌ 格式不正确！"); return;
+        }
+
+        if (DatabaseUtil.isAvailable()) {
+            try {
+                printStats("📊 数据库中的日记:", DatabaseUtil.stats(range), DatabaseUtil.monthly(range));
+            } catch (SQLException e) {
+                System.out.println("❌ 统计失败：" + e.getMessage());
+            }
         }
-        if (DatabaseUtil.isAvailable() && DatabaseUtil.delete(date)) {
-            System.out.println("✅ 数据库记录删除成功");
-            deleted = true;
+        printStats(DatabaseUtil.isAvailable() ? "\n📁 文件系统中的日记:" : "📁 所有日记:",
+                DigestUtil.stats(range), DigestUtil.monthly(range));
+    }
+
+    // 超过两年时按年汇总显示，避免刷屏
+    private static void printStats(String title, DigestUtil.RangeStats total, Map<YearMonth, DigestUtil.RangeStats> months) {
+        System.out.println(title);
+        if (total.entries() == 0) {
+            System.out.println("📭 这段时间没有日记"); return;
         }
-        System.out.println(deleted ? "✅ 删除完成" : "⚠️ 没有进行任何删除操作");
+        System.out.printf("共 %d 篇，%d 字，平均每篇 %d 字（%s ~ %s）%n",
+                total.entries(), total.chars(), total.chars() / total.entries(), total.first(), total.last());
+
+        Map<String, DigestUtil.RangeStats> rows = new TreeMap<>();
+        boolean byYear = months.size() > 24;
+        months.forEach((month, stats) -> rows.merge(byYear ? String.valueOf(month.getYear()) : month.toString(),
+                stats, DigestUtil.RangeStats::plus));
+        System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━");
+        rows.forEach((label, stats) -> System.out.printf("%-8s\t%5d 篇\t%8d 字%n", label, stats.entries(), stats.chars()));
+        System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━");
     }
 
     private static String selectDiary(Scanner scanner, String action) {
-        File[] files = FileUtil.getSortedFiles();
-        if (files == null || files.length == 0) {
+        NavigableSet<LocalDate> dates = CatalogUtil.dates();
+        if (dates.isEmpty()) {
             System.out.println("📭 没有日记可" + action); return null;
         }
 
         System.out.println("📅 最近的日记：");
         System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━");
-        for (int i = 0; i < Math.min(files.length, 5); i++) {
-            String date = FileUtil.getDateFromFilename(files[i].getName());
-            System.out.printf("%d. %s%n", i + 1, date);
+        Iterator<LocalDate> recent = dates.iterator();
+        for (int i = 0; i < 5 && recent.hasNext(); i++) {
+            System.out.printf("%d. %s%n", i + 1, recent.next());
         }
         System.out.println("━━━━━━━━━━━━━━━━━━━━━━━━");
         System.out.print("👉 请选择要" + action + "的日记序号（或输入日期 yyyy-MM-dd）: ");
@@ -424,8 +3900,11 @@ public class DiaryManager {
         String input = scanner.nextLine().trim();
         try {
             int index = Integer.parseInt(input);
-            if (index >= 1 && index <= files.length)
-                return FileUtil.getDateFromFilename(files[index - 1].getName());
+            if (index >= 1 && index <= CatalogUtil.size()) {
+                Iterator<LocalDate> it = dates.iterator();
+                for (int i = 1; i < index && it.hasNext(); i++) it.next();
+                if (it.hasNext()) return it.next().toString();
+            }
             System.out.println("❌ 序号超出范围"); return null;
         } catch (NumberFormatException e) {
             if (UIUtil.isValidDate(input)) return input;
@@ -434,8 +3913,50 @@ public class DiaryManager {
     }
 
     public static void main(String[] args) {
+        // 基准测试自行初始化，避免父进程连接真实数据库
+        if (args.length > 0 && args[0].equals("bench")) {
+            BenchUtil.fork(args.length > 1 ? args[1] : "1000,10000,100000");
+            return;
+        }
+        if (args.length > 1 && args[0].equals("bench-run")) {
+            BenchUtil.run(Integer.parseInt(args[1]));
+            return;
+        }
+
+        Metrics.init();
         DatabaseUtil.init();
         FileUtil.initDir();
+        try {
+            CatalogUtil.init();
+        } catch (IOException e) {
+            System.out.println("❌ 打开分段存储失败：" + e.getMessage());
+            DatabaseUtil.close();
+            return;
+        }
+        IndexUtil.init();
+        DigestUtil.init();
+
+        // 命令行模式：java DiaryManager import | export | sync | serve [端口] | bench [规模,...]
+        if (args.length > 0) {
+            switch (args[0]) {
+                case "import" -> TransferUtil.importFiles();
+                case "export" -> TransferUtil.exportFiles();
+                case "sync" -> SyncUtil.run();
+                case "serve" -> {
+                    try {
+                        if (System.getProperty("diary.groupCommit") == null) GroupCommit.enabled = true;
+                        ServerUtil.start(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                        return;
+                    } catch (IOException | NumberFormatException e) {
+                        System.out.println("❌ 服务启动失败：" + e.getMessage());
+                    }
+                }
+                default -> System.out.println("❌ 未知命令：" + args[0] + "（可用：import、export、sync、serve、bench）");
+            }
+            DatabaseUtil.close();
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
 
         while (true) {
@@ -443,11 +3964,14 @@ public class DiaryManager {
             try {
                 switch (Integer.parseInt(scanner.nextLine())) {
                     case 1 -> writeDiary(scanner);
-                    case 2 -> listDiaries();
+                    case 2 -> listDiaries(scanner);
                     case 3 -> searchDiaries(scanner);
                     case 4 -> modifyDiary(scanner);
                     case 5 -> deleteDiary(scanner);
-                    case 6 -> {
+                    case 6 -> DatabaseUtil.switchMode();
+                    case 7 -> checkSync(scanner);
+                    case 8 -> showStats(scanner);
+                    case 9 -> {
                         System.out.println("\n════════════════════════════════════════");
                         System.out.println("         🙏 感谢使用，再见！");
                         System.out.println("════════════════════════════════════════");
@@ -455,7 +3979,7 @@ public class DiaryManager {
                         scanner.close();
                         return;
                     }
-                    default -> System.out.println("❌ 请输入1~6之间的数字");
+                    default -> System.out.println("❌ 请输入1~9之间的数字");
                 }
             } catch (NumberFormatException e) {
                 System.out.println("❌ 请输入有效的数字！");
@@ -1,6 +1,33 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.Scanner;
 import java.util.InputMismatchException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 class Student {
     private String name;
@@ -32,13 +59,211 @@ class Student {
 
 public class Sims {
     // 数据库连接信息 - 请根据你的实际情况修改
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/sims";
+    // rewriteBatchedStatements 让驱动把批量插入合并成多值 INSERT，批量导入时减少往返次数
+    private static final String DB_URL = "jdbc:mysql://localhost:3306/sims?rewriteBatchedStatements=true";
     private static final String DB_USER = "root";  // 默认用户名
     private static final String DB_PASSWORD = "iruo1122";  // 修改为你的MySQL密码
 
-    // 获取数据库连接
+    // 获取数据库连接（从连接池借出，close() 时归还）
     private static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        return ConnectionPool.borrow();
+    }
+
+    // 数据库连接池：复用已建立的连接，避免每次操作都重新进行 TCP 连接和登录认证
+    private static class ConnectionPool {
+        private static final int MAX_SIZE = Integer.getInteger("sims.pool.size", 8);
+        private static final long ACQUIRE_TIMEOUT_MS = Long.getLong("sims.pool.timeout", 5_000);
+        private static final long VALIDATE_AFTER_MS = 30_000;         // 空闲超过该时间，借出前先检查连接是否有效
+        private static final long MAX_LIFETIME_MS = 30 * 60_000;      // 连接最长使用时间，早于服务器 wait_timeout 主动更换
+        private static final int STATEMENT_CACHE_SIZE = 32;           // 每个连接缓存的预编译语句数
+
+        // 空闲连接，后进先出：常用的连接保持活跃，多余的连接自然老化
+        private static final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+        private static final Semaphore permits = new Semaphore(MAX_SIZE, true);
+
+        // 统计信息
+        private static final AtomicLong created = new AtomicLong();
+        private static final AtomicLong retired = new AtomicLong();
+        private static final AtomicLong borrowed = new AtomicLong();
+        private static final AtomicLong timeouts = new AtomicLong();
+        private static final AtomicLong waitNanos = new AtomicLong();
+        private static final AtomicLong statementHits = new AtomicLong();
+        private static final AtomicLong statementMisses = new AtomicLong();
+
+        // 池中的一个物理连接及其预编译语句缓存
+        private static class PooledConnection {
+            final Connection raw;
+            final long createdAt = System.currentTimeMillis();
+            long lastUsed = createdAt;
+            // 按访问顺序排列，超出容量时关闭最久未用的语句
+            final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE) return false;
+                    try { eldest.getValue().close(); } catch (SQLException ignored) {}
+                    return true;
+                }
+            };
+
+            PooledConnection(Connection raw) { this.raw = raw; }
+
+            PreparedStatement prepare(String sql) throws SQLException {
+                PreparedStatement pstmt = statements.get(sql);
+                if (pstmt != null && !pstmt.isClosed()) {
+                    statementHits.incrementAndGet();
+                    return pstmt;
+                }
+                statementMisses.incrementAndGet();
+                pstmt = raw.prepareStatement(sql);
+                statements.put(sql, pstmt);
+                return pstmt;
+            }
+
+            void close() {
+                for (PreparedStatement pstmt : statements.values()) {
+                    try { pstmt.close(); } catch (SQLException ignored) {}
+                }
+                statements.clear();
+                try { raw.close(); } catch (SQLException ignored) {}
+            }
+        }
+
+        // 借出一个连接，等待超过 ACQUIRE_TIMEOUT_MS 时抛出异常
+        static Connection borrow() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SQLTransientConnectionException("获取数据库连接超时（" + ACQUIRE_TIMEOUT_MS + "ms）");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("等待数据库连接时被中断");
+            }
+            waitNanos.addAndGet(System.nanoTime() - start);
+
+            try {
+                PooledConnection pooled;
+                while ((pooled = idle.pollFirst()) != null && !usable(pooled)) retire(pooled);
+                if (pooled == null) {
+                    pooled = new PooledConnection(DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD));
+                    created.incrementAndGet();
+                }
+                borrowed.incrementAndGet();
+                return lease(pooled);
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private static boolean usable(PooledConnection pooled) {
+            long now = System.currentTimeMillis();
+            if (now - pooled.createdAt > MAX_LIFETIME_MS) return false;
+            try {
+                if (pooled.raw.isClosed()) return false;
+                return now - pooled.lastUsed <= VALIDATE_AFTER_MS || pooled.raw.isValid(2);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private static void retire(PooledConnection pooled) {
+            pooled.close();
+            retired.incrementAndGet();
+        }
+
+        // 归还连接：未提交的事务回滚，恢复自动提交
+        private static void giveBack(PooledConnection pooled) {
+            try {
+                if (!pooled.raw.getAutoCommit()) {
+                    pooled.raw.rollback();
+                    pooled.raw.setAutoCommit(true);
+                }
+                pooled.lastUsed = System.currentTimeMillis();
+                if (pooled.lastUsed - pooled.createdAt > MAX_LIFETIME_MS) retire(pooled);
+                else idle.offerFirst(pooled);
+            } catch (SQLException e) {
+                retire(pooled);
+            } finally {
+                permits.release();
+            }
+        }
+
+        // 用动态代理包装连接：close() 归还到池中，prepareStatement(sql) 返回缓存的语句
+        private static Connection lease(PooledConnection pooled) {
+            InvocationHandler handler = new InvocationHandler() {
+                private boolean closed = false;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed) {
+                                closed = true;
+                                giveBack(pooled);
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed;
+                        case "toString":
+                            return "Pooled[" + pooled.raw + "]";
+                        default:
+                            if (closed) throw new SQLException("连接已归还到连接池");
+                    }
+                    if (method.getName().equals("prepareStatement") && args.length == 1) {
+                        return cached(pooled.prepare((String) args[0]), (Connection) proxy);
+                    }
+                    return delegate(pooled.raw, method, args);
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handler);
+        }
+
+        // 缓存语句的代理：close() 只清空参数，语句留在缓存中
+        private static PreparedStatement cached(PreparedStatement pstmt, Connection owner) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                pstmt.clearParameters();
+                                return null;
+                            case "getConnection":
+                                return owner;
+                            default:
+                                return delegate(pstmt, method, args);
+                        }
+                    });
+        }
+
+        private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // 显示连接池状态
+        static void printStats() {
+            int idleCount = idle.size();
+            int active = MAX_SIZE - permits.availablePermits();
+            long borrows = borrowed.get();
+            long hits = statementHits.get(), misses = statementMisses.get();
+            System.out.println("连接池上限：" + MAX_SIZE + "\t使用中：" + active + "\t空闲：" + idleCount);
+            System.out.println("累计借出：" + borrows + "\t新建连接：" + created.get() + "\t更换连接：" + retired.get()
+                    + "\t获取超时：" + timeouts.get());
+            System.out.printf("平均等待：%.3fms\t语句缓存命中率：%.1f%%\n",
+                    borrows == 0 ? 0.0 : waitNanos.get() / 1e6 / borrows,
+                    hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses));
+        }
+
+        // 关闭所有空闲连接
+        static void shutdown() {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) pooled.close();
+        }
     }
 
     // 初始化数据库表（如果不存在则创建）
@@ -50,18 +275,31 @@ public class Sims {
                 "age INT NOT NULL," +
                 "score INT NOT NULL," +
                 "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP," +
+                "INDEX idx_score (score)," +
+                "INDEX idx_age (age)" +
                 ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
 
         try (Connection conn = getConnection();
              Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(createTableSQL);
+            // 旧表补建按成绩、年龄排序和筛选用的索引（InnoDB 二级索引自带主键 id，可直接用于续页）
+            createIndex(stmt, "CREATE INDEX idx_score ON students (score)");
+            createIndex(stmt, "CREATE INDEX idx_age ON students (age)");
             System.out.println("数据库初始化成功！");
         } catch (SQLException e) {
             System.out.println("数据库初始化失败：" + e.getMessage());
         }
     }
 
+    private static void createIndex(Statement stmt, String sql) throws SQLException {
+        try {
+            stmt.executeUpdate(sql);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != 1061) throw e; // 索引已存在
+        }
+    }
+
     // 添加学生到数据库
     private static void addStudentToDB(Student student) {
         String sql = "INSERT INTO students (student_id, name, age, score) VALUES (?, ?, ?, ?)";
@@ -76,6 +314,8 @@ public class Sims {
 
             int rowsAffected = pstmt.executeUpdate();
             if (rowsAffected > 0) {
+                StudentCache.invalidate(student.getStudentId());
+                StudentStats.add(student);
                 System.out.println("学生信息已成功保存到数据库！");
             }
         } catch (SQLException e) {
@@ -89,101 +329,914 @@ public class Sims {
 
     // 从数据库读取所有学生
     private static void displayAllStudentsFromDB() {
-        String sql = "SELECT student_id, name, age, score FROM students ORDER BY id";
+        listStudents(null, false, null, null, null, null);
+    }
 
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            boolean hasData = false;
-            while (rs.next()) {
-                hasData = true;
-                String studentId = rs.getString("student_id");
-                String name = rs.getString("name");
-                int age = rs.getInt("age");
-                int score = rs.getInt("score");
-
-                Student student = new Student(name, studentId, age, score);
-                student.display();
-            }
+    // 每次查询取一页，按 id（或排序列 + id）续页，不使用 OFFSET，翻到后面的页也不用跳过前面的行
+    private static final int LIST_PAGE_SIZE = 1000;
 
-            if (!hasData) {
-                System.out.println("数据库中暂无学生信息！");
+    // 流式列出学生：筛选和排序都在 SQL 中完成，逐行读取直接写入一个大缓冲区，不为每行创建 Student 对象
+    // sortColumn 为 null 时按录入顺序（id），否则为 "score" 或 "age"；筛选条件为 null 表示不限
+    private static void listStudents(String sortColumn, boolean descending,
+                                     Integer minScore, Integer maxScore, Integer minAge, Integer maxAge) {
+        if (sortColumn != null && !sortColumn.equals("score") && !sortColumn.equals("age")) {
+            throw new IllegalArgumentException("不支持的排序列：" + sortColumn);
+        }
+        List<Integer> filters = new ArrayList<>();
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        if (minScore != null) { where.append(" AND score >= ?"); filters.add(minScore); }
+        if (maxScore != null) { where.append(" AND score <= ?"); filters.add(maxScore); }
+        if (minAge != null) { where.append(" AND age >= ?"); filters.add(minAge); }
+        if (maxAge != null) { where.append(" AND age <= ?"); filters.add(maxAge); }
+
+        String select = "SELECT id, student_id, name, age, score FROM students";
+        String orderBy = sortColumn == null ? " ORDER BY id" : " ORDER BY " + sortColumn + (descending ? " DESC" : "") + ", id";
+        String firstPage = select + where + orderBy + " LIMIT ?";
+        String nextPage = sortColumn == null
+                ? select + where + " AND id > ?" + orderBy + " LIMIT ?"
+                : select + where + " AND (" + sortColumn + (descending ? " < ?" : " > ?") +
+                  " OR (" + sortColumn + " = ? AND id > ?))" + orderBy + " LIMIT ?";
+
+        // 不关闭 out，否则会关闭 System.out
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, stdoutCharset()), 1 << 16), false);
+        long total = 0;
+        try (Connection conn = getConnection()) {
+            int lastId = 0, lastKey = 0;
+            while (true) {
+                // 默认即为只进、只读结果集；使用单参数形式才能复用连接池缓存的语句
+                try (PreparedStatement pstmt = conn.prepareStatement(total == 0 ? firstPage : nextPage)) {
+                    pstmt.setFetchSize(LIST_PAGE_SIZE);
+                    int index = 1;
+                    for (int value : filters) pstmt.setInt(index++, value);
+                    if (total > 0) {
+                        if (sortColumn != null) {
+                            pstmt.setInt(index++, lastKey);
+                            pstmt.setInt(index++, lastKey);
+                        }
+                        pstmt.setInt(index++, lastId);
+                    }
+                    pstmt.setInt(index, LIST_PAGE_SIZE);
+
+                    int rows = 0;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            lastId = rs.getInt(1);
+                            int age = rs.getInt(4), score = rs.getInt(5);
+                            if (sortColumn != null) lastKey = sortColumn.equals("score") ? score : age;
+                            out.append("姓名：").append(rs.getString(3)).append("\t学号：").append(rs.getString(2))
+                                    .append("\t年龄：").append(Integer.toString(age))
+                                    .append("\t成绩：").append(Integer.toString(score)).append('\n');
+                        }
+                    }
+                    total += rows;
+                    if (rows < LIST_PAGE_SIZE) break;
+                }
             }
         } catch (SQLException e) {
+            out.flush();
             System.out.println("读取数据失败：" + e.getMessage());
+            return;
         }
+
+        if (total == 0) {
+            out.println(filters.isEmpty() ? "数据库中暂无学生信息！" : "没有符合条件的学生！");
+        } else {
+            out.println("共 " + total + " 名学生");
+        }
+        out.flush();
     }
 
-    // 从数据库查找学生
+    // System.out 实际使用的编码；JDK 17 还没有 PrintStream.charset()，按它的取值顺序读取系统属性
+    private static Charset stdoutCharset() {
+        String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        try {
+            return name == null ? Charset.defaultCharset() : Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    // 交互式筛选和排序后列出学生，输入 -1 表示不限
+    private static void filteredListing(Scanner scanner) {
+        int sort = getValidInt(scanner, "排序方式（0 录入顺序，1 成绩从高到低，2 成绩从低到高，3 年龄从小到大，4 年龄从大到小）：");
+        Integer minScore = optional(getValidInt(scanner, "最低成绩（-1 不限）："));
+        Integer maxScore = optional(getValidInt(scanner, "最高成绩（-1 不限）："));
+        Integer minAge = optional(getValidInt(scanner, "最小年龄（-1 不限）："));
+        Integer maxAge = optional(getValidInt(scanner, "最大年龄（-1 不限）："));
+        switch (sort) {
+            case 1: listStudents("score", true, minScore, maxScore, minAge, maxAge); break;
+            case 2: listStudents("score", false, minScore, maxScore, minAge, maxAge); break;
+            case 3: listStudents("age", false, minScore, maxScore, minAge, maxAge); break;
+            case 4: listStudents("age", true, minScore, maxScore, minAge, maxAge); break;
+            default: listStudents(null, false, minScore, maxScore, minAge, maxAge);
+        }
+    }
+
+    private static Integer optional(int value) {
+        return value < 0 ? null : value;
+    }
+
+    // 查找学生：先查缓存，未命中时查询数据库并放入缓存
     private static void searchStudentInDB(String searchId) {
-        String sql = "SELECT student_id, name, age, score FROM students WHERE student_id = ?";
+        try {
+            Student student = StudentCache.lookup(searchId);
+            if (student == null) {
+                System.out.println("未找到学号为 " + searchId + " 的学生！");
+            } else {
+                student.display();
+            }
+        } catch (SQLException e) {
+            System.out.println("查找失败：" + e.getMessage());
+        }
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    // 按学号缓存查询结果：容量满时淘汰最久未访问的条目，条目超过存活时间后重新查询；
+    // 不存在的学号也缓存一小段时间，避免反复查询同一个错误学号。添加、删除和批量导入后使对应条目失效
+    private static class StudentCache {
+        private static final int MAX_ENTRIES = Integer.getInteger("sims.cache.size", 10_000);
+        private static final long TTL_MS = Long.getLong("sims.cache.ttl", 300) * 1000;
+        private static final long NEGATIVE_TTL_MS = 30_000;
+        private static final int PREWARM = Integer.getInteger("sims.cache.prewarm", 1000);
 
-            pstmt.setString(1, searchId);
-            ResultSet rs = pstmt.executeQuery();
+        // student 为 null 表示数据库中没有这个学号
+        private static class Entry {
+            final Student student;
+            final long expiresAt;
 
-            boolean found = false;
-            while (rs.next()) {
-                found = true;
-                String studentId = rs.getString("student_id");
-                String name = rs.getString("name");
-                int age = rs.getInt("age");
-                int score = rs.getInt("score");
+            Entry(Student student, long expiresAt) {
+                this.student = student;
+                this.expiresAt = expiresAt;
+            }
+        }
 
-                Student student = new Student(name, studentId, age, score);
-                student.display();
+        private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= MAX_ENTRIES) return false;
+                evictions++;
+                return true;
             }
+        };
+        // 每次失效加一：查询期间发生过失效时不写入缓存，避免放入已被删除或覆盖前的旧结果
+        private static long generation = 0;
+        private static long hits, negativeHits, misses, expirations, evictions;
 
-            if (!found) {
-                System.out.println("未找到学号为 " + searchId + " 的学生！");
+        // 返回学号对应的学生，不存在时返回 null
+        static Student lookup(String studentId) throws SQLException {
+            long seen;
+            synchronized (StudentCache.class) {
+                Entry entry = entries.get(studentId);
+                if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                    if (entry.student == null) negativeHits++;
+                    else hits++;
+                    return entry.student;
+                }
+                if (entry != null) {
+                    entries.remove(studentId);
+                    expirations++;
+                }
+                misses++;
+                seen = generation;
             }
 
-            rs.close();
-        } catch (SQLException e) {
-            System.out.println("查找失败：" + e.getMessage());
+            Student student = null;
+            String sql = "SELECT student_id, name, age, score FROM students WHERE student_id = ?";
+            try (Connection conn = getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, studentId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) student = new Student(rs.getString("name"), rs.getString("student_id"),
+                            rs.getInt("age"), rs.getInt("score"));
+                }
+            }
+
+            synchronized (StudentCache.class) {
+                if (generation == seen) put(studentId, student);
+            }
+            return student;
+        }
+
+        private static void put(String studentId, Student student) {
+            long ttl = student == null ? NEGATIVE_TTL_MS : TTL_MS;
+            entries.put(studentId, new Entry(student, System.currentTimeMillis() + ttl));
+        }
+
+        static synchronized void invalidate(String studentId) {
+            entries.remove(studentId);
+            generation++;
+        }
+
+        // 启动时预先载入最近添加的学生
+        static void prewarm() {
+            if (PREWARM <= 0) return;
+            String sql = "SELECT student_id, name, age, score FROM students ORDER BY id DESC LIMIT ?";
+            List<Student> recent = new ArrayList<>();
+            try (Connection conn = getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, Math.min(PREWARM, MAX_ENTRIES));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) recent.add(new Student(rs.getString("name"), rs.getString("student_id"),
+                            rs.getInt("age"), rs.getInt("score")));
+                }
+            } catch (SQLException e) {
+                System.out.println("预加载缓存失败：" + e.getMessage());
+                return;
+            }
+            synchronized (StudentCache.class) {
+                // 倒序放入，最近添加的学生排在最后，最晚被淘汰
+                for (int i = recent.size() - 1; i >= 0; i--) put(recent.get(i).getStudentId(), recent.get(i));
+            }
+        }
+
+        static synchronized void printStats() {
+            long lookups = hits + negativeHits + misses;
+            System.out.println("缓存条目：" + entries.size() + " / " + MAX_ENTRIES + "\t存活时间：" + TTL_MS / 1000 + "秒");
+            System.out.println("命中：" + hits + "\t命中（不存在）：" + negativeHits + "\t未命中：" + misses
+                    + "\t过期：" + expirations + "\t淘汰：" + evictions);
+            System.out.printf("命中率：%.1f%%\n", lookups == 0 ? 0.0 : 100.0 * (hits + negativeHits) / lookups);
         }
     }
 
-    // 从数据库统计信息
-    private static void showStatisticsFromDB() {
-        String countSQL = "SELECT COUNT(*) as total FROM students";
-        String scoreSQL = "SELECT AVG(score) as avg_score, MAX(score) as max_score, MIN(score) as min_score FROM students";
+    // 显示统计信息：直接读取内存中的统计结构，不扫描数据表
+    private static void showStatistics() {
+        StudentStats.print();
+    }
 
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
+    // 学生统计：启动时读取一次全部成绩和年龄，之后随添加、删除和批量导入增量更新。
+    // 成绩按分值计数（有序映射），总数、平均分、最高/最低分 O(1) 或 O(log n)，
+    // 中位数、P90 和等级分布只遍历不同分值（不超过 101 个），不再扫描数据表。
+    // 其他客户端直接修改数据库的部分，要到下次启动重新加载时才会计入（统计信息中会显示加载时间）。
+    private static class StudentStats {
+        private static final int[] GRADE_FLOORS = {90, 80, 70, 60, Integer.MIN_VALUE};
+        private static final String[] GRADE_NAMES = {"优秀（90~100）", "良好（80~89）", "中等（70~79）", "及格（60~69）", "不及格（<60）"};
+
+        // 一组成绩的分布：分值 -> 人数
+        private static class ScoreDistribution {
+            final TreeMap<Integer, Integer> counts = new TreeMap<>();
+            long total;
+            long sum;
 
-            // 获取学生总数
-            ResultSet rs1 = stmt.executeQuery(countSQL);
-            int total = 0;
-            if (rs1.next()) {
-                total = rs1.getInt("total");
+            void add(int score) {
+                counts.merge(score, 1, Integer::sum);
+                total++;
+                sum += score;
             }
-            rs1.close();
 
-            if (total == 0) {
+            void remove(int score) {
+                Integer count = counts.get(score);
+                if (count == null) return;
+                if (count == 1) counts.remove(score);
+                else counts.put(score, count - 1);
+                total--;
+                sum -= score;
+            }
+
+            double average() { return total == 0 ? 0 : (double) sum / total; }
+
+            // 最近秩法：第 ceil(p * total) 个成绩
+            int percentile(double p) {
+                long rank = Math.max(1, (long) Math.ceil(p * total));
+                long seen = 0;
+                for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+                    seen += e.getValue();
+                    if (seen >= rank) return e.getKey();
+                }
+                return counts.lastKey();
+            }
+
+            // 分数在 [from, to) 之间的人数
+            long between(int from, int to) {
+                long n = 0;
+                for (int count : counts.subMap(from, true, to, false).values()) n += count;
+                return n;
+            }
+        }
+
+        private static final ScoreDistribution all = new ScoreDistribution();
+        private static final TreeMap<Integer, ScoreDistribution> byAge = new TreeMap<>();
+        private static boolean loaded = false;
+        private static long loadedAt;
+
+        // 从数据库读取一次全部成绩和年龄
+        static synchronized boolean load() {
+            try (Connection conn = getConnection();
+                 Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(Integer.MIN_VALUE); // MySQL 驱动逐行流式读取
+                all.counts.clear();
+                all.total = 0;
+                all.sum = 0;
+                byAge.clear();
+                try (ResultSet rs = stmt.executeQuery("SELECT age, score FROM students")) {
+                    while (rs.next()) addRow(rs.getInt(1), rs.getInt(2));
+                }
+                loaded = true;
+                loadedAt = System.currentTimeMillis();
+                return true;
+            } catch (SQLException e) {
+                loaded = false;
+                System.out.println("加载统计数据失败：" + e.getMessage());
+                return false;
+            }
+        }
+
+        static synchronized void add(Student student) {
+            if (loaded) addRow(student.getAge(), student.getScore());
+        }
+
+        static synchronized void remove(int age, int score) {
+            ScoreDistribution group = byAge.get(age);
+            if (!loaded || group == null || !group.counts.containsKey(score)) return;
+            all.remove(score);
+            group.remove(score);
+            if (group.total == 0) byAge.remove(age);
+        }
+
+        private static void addRow(int age, int score) {
+            all.add(score);
+            byAge.computeIfAbsent(age, k -> new ScoreDistribution()).add(score);
+        }
+
+        static synchronized void print() {
+            if (!loaded && !load()) return;
+            if (all.total == 0) {
                 System.out.println("数据库中暂无学生信息！");
                 return;
             }
+            System.out.println("学生总数：" + all.total);
+            System.out.printf("平均分：%.2f\n", all.average());
+            System.out.println("最高分：" + all.counts.lastKey());
+            System.out.println("最低分：" + all.counts.firstKey());
+            System.out.println("中位数：" + all.percentile(0.5) + "\tP90：" + all.percentile(0.9));
 
-            // 获取统计信息
-            ResultSet rs2 = stmt.executeQuery(scoreSQL);
-            if (rs2.next()) {
-                double avgScore = rs2.getDouble("avg_score");
-                int maxScore = rs2.getInt("max_score");
-                int minScore = rs2.getInt("min_score");
+            System.out.println("\n成绩等级分布：");
+            int upper = Integer.MAX_VALUE;
+            for (int i = 0; i < GRADE_FLOORS.length; i++) {
+                long n = all.between(GRADE_FLOORS[i], upper);
+                upper = GRADE_FLOORS[i];
+                System.out.printf("%-12s%6d 人  %5.1f%%  %s\n", GRADE_NAMES[i], n, 100.0 * n / all.total,
+                        "█".repeat((int) Math.round(30.0 * n / all.total)));
+            }
 
-                System.out.println("学生总数：" + total);
-                System.out.printf("平均分：%.2f\n", avgScore);
-                System.out.println("最高分：" + maxScore);
-                System.out.println("最低分：" + minScore);
+            System.out.println("\n按年龄统计：");
+            System.out.println("年龄\t人数\t平均分\t最高分\t最低分\t中位数");
+            for (Map.Entry<Integer, ScoreDistribution> e : byAge.entrySet()) {
+                ScoreDistribution group = e.getValue();
+                System.out.printf("%d\t%d\t%.2f\t%d\t%d\t%d\n", e.getKey(), group.total, group.average(),
+                        group.counts.lastKey(), group.counts.firstKey(), group.percentile(0.5));
             }
-            rs2.close();
+            System.out.println("（数据加载于 " + new java.sql.Timestamp(loadedAt).toString().substring(0, 19) +
+                    "，之后本程序的修改已计入）");
+        }
+    }
 
-        } catch (SQLException e) {
-            System.out.println("统计失败：" + e.getMessage());
+    // CSV 批量导入：流式读取，按块并行校验，每块一个事务批量插入；
+    // 格式不对、文件内重复或数据库中已存在的行写入拒绝报告（原文件名 + .rejects.csv），不中断导入
+    private static class CsvImporter {
+        private static final int CHUNK_SIZE = 1000;
+        private static final int DUPLICATE_KEY = 1062;
+        private static final int LOOKUP_SIZE = 100;
+        private static final String LOOKUP_SQL = "SELECT student_id FROM students WHERE student_id IN (?"
+                + ", ?".repeat(LOOKUP_SIZE - 1) + ")";
+        // 没有表头时的列顺序：学号,姓名,年龄,成绩
+        private static final String[] DEFAULT_HEADER = {"student_id", "name", "age", "score"};
+
+        // CSV 中的一行及其校验结果，student 为 null 时 reason 为拒绝原因
+        private static class Row {
+            final int line;
+            final String text;
+            Student student;
+            String reason;
+
+            Row(int line, String text) {
+                this.line = line;
+                this.text = text;
+            }
+        }
+
+        // 拒绝报告：第一次拒绝时才创建文件，全部通过的导入不留下空报告
+        private static class Rejects implements AutoCloseable {
+            final Path file;
+            PrintWriter out;
+            int count;
+
+            Rejects(Path file) {
+                this.file = file;
+            }
+
+            void add(Row row, String reason) throws IOException {
+                if (out == null) {
+                    out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+                    out.println("行号,原因,内容");
+                }
+                out.println(row.line + "," + quote(reason) + "," + quote(row.text));
+                count++;
+            }
+
+            @Override
+            public void close() {
+                if (out != null) out.close();
+            }
+        }
+
+        // 导入一个 CSV 文件，返回成功导入的行数
+        static int importFile(String path) {
+            long start = System.currentTimeMillis();
+            Path file = Paths.get(path);
+            if (!Files.isRegularFile(file)) {
+                System.out.println("找不到文件：" + path);
+                return 0;
+            }
+            Rejects rejects = new Rejects(Paths.get(path + ".rejects.csv"));
+            int imported = 0;
+            Map<String, Integer> seen = new HashMap<>();
+
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                 rejects;
+                 Connection conn = getConnection()) {
+                // 上一次导入留下的报告已经过时
+                Files.deleteIfExists(rejects.file);
+                String first = reader.readLine();
+                int[] lineNo = {first == null ? 0 : 1};
+                if (first != null && first.startsWith("\uFEFF")) first = first.substring(1);
+                int[] columns = first == null ? null : columns(split(first));
+                List<Row> leading = new ArrayList<>();
+                if (columns == null) {
+                    // 第一行不是表头：按默认列顺序，它本身就是第一行数据
+                    columns = new int[]{0, 1, 2, 3};
+                    if (first != null && !first.trim().isEmpty()) leading.add(new Row(1, first));
+                } else {
+                    for (int column : columns) {
+                        if (column < 0) {
+                            System.out.println("表头缺少学号、姓名、年龄或成绩列！");
+                            return 0;
+                        }
+                    }
+                }
+
+                // 当前块写入数据库的同时，并行校验下一块
+                CompletableFuture<List<Row>> next = validateAsync(readChunk(reader, lineNo, leading), columns);
+                while (true) {
+                    List<Row> chunk = next.join();
+                    if (chunk.isEmpty()) break;
+                    next = validateAsync(readChunk(reader, lineNo, new ArrayList<>()), columns);
+                    imported += insert(conn, chunk, seen, rejects);
+                    System.out.println("已导入 " + imported + " 行，拒绝 " + rejects.count + " 行");
+                }
+            } catch (IOException e) {
+                System.out.println("读取文件失败：" + e.getMessage());
+            } catch (SQLException e) {
+                System.out.println("导入中止（当前块已回滚）：" + e.getMessage());
+            }
+
+            System.out.println("导入完成：成功 " + imported + " 行，拒绝 " + rejects.count + " 行，用时 "
+                    + (System.currentTimeMillis() - start) + "ms");
+            if (rejects.count > 0) System.out.println("拒绝明细见：" + rejects.file);
+            return imported;
+        }
+
+        // 解析表头，返回学号、姓名、年龄、成绩所在的列（缺少的列为 -1）；没有任何列名匹配时说明第一行不是表头，返回 null
+        private static int[] columns(List<String> header) {
+            int[] columns = new int[DEFAULT_HEADER.length];
+            boolean isHeader = false;
+            for (int i = 0; i < DEFAULT_HEADER.length; i++) {
+                columns[i] = -1;
+                for (int j = 0; j < header.size(); j++) {
+                    if (matches(header.get(j).trim(), i)) {
+                        columns[i] = j;
+                        isHeader = true;
+                    }
+                }
+            }
+            return isHeader ? columns : null;
+        }
+
+        private static boolean matches(String name, int field) {
+            String[][] aliases = {{"student_id", "学号"}, {"name", "姓名"}, {"age", "年龄"}, {"score", "成绩"}};
+            for (String alias : aliases[field]) if (alias.equalsIgnoreCase(name)) return true;
+            return false;
+        }
+
+        // 在 chunk 已有的行之后继续读取，凑满一块
+        private static List<Row> readChunk(BufferedReader reader, int[] lineNo, List<Row> chunk) throws IOException {
+            String line;
+            while (chunk.size() < CHUNK_SIZE && (line = reader.readLine()) != null) {
+                lineNo[0]++;
+                if (line.startsWith("\uFEFF")) line = line.substring(1);
+                if (!line.trim().isEmpty()) chunk.add(new Row(lineNo[0], line));
+            }
+            return chunk;
+        }
+
+        private static CompletableFuture<List<Row>> validateAsync(List<Row> chunk, int[] columns) {
+            return CompletableFuture.supplyAsync(() -> {
+                chunk.parallelStream().forEach(row -> validate(row, columns));
+                return chunk;
+            });
+        }
+
+        // 校验规则与交互式添加一致：学号、姓名非空且不超过列宽，年龄 1~150，成绩 0~100
+        private static void validate(Row row, int[] columns) {
+            List<String> fields = split(row.text);
+            int needed = 0;
+            for (int column : columns) needed = Math.max(needed, column + 1);
+            if (fields.size() < needed) {
+                row.reason = "列数不足";
+                return;
+            }
+            String studentId = fields.get(columns[0]).trim();
+            String name = fields.get(columns[1]).trim();
+            if (studentId.isEmpty() || studentId.length() > 20) {
+                row.reason = "学号为空或超过20个字符";
+                return;
+            }
+            if (name.isEmpty() || name.length() > 50) {
+                row.reason = "姓名为空或超过50个字符";
+                return;
+            }
+            int age, score;
+            try {
+                age = Integer.parseInt(fields.get(columns[2]).trim());
+                score = Integer.parseInt(fields.get(columns[3]).trim());
+            } catch (NumberFormatException e) {
+                row.reason = "年龄或成绩不是整数";
+                return;
+            }
+            if (age < 1 || age > 150) {
+                row.reason = "年龄超出范围";
+                return;
+            }
+            if (score < 0 || score > 100) {
+                row.reason = "成绩超出范围";
+                return;
+            }
+            row.student = new Student(name, studentId, age, score);
+        }
+
+        // 按 RFC 4180 拆分一行：字段可用双引号包围，引号内的逗号不分隔，两个双引号表示一个
+        static List<String> split(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        private static String quote(String value) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+
+        // 写入一块：先剔除文件内重复和数据库中已存在的学号，再在一个事务里批量插入；
+        // 批量插入仍遇到重复学号（例如其他客户端同时写入）时回滚，改为逐行插入并把冲突的行写入报告
+        private static int insert(Connection conn, List<Row> chunk, Map<String, Integer> seen,
+                                  Rejects report) throws SQLException, IOException {
+            List<Row> valid = new ArrayList<>(chunk.size());
+            for (Row row : chunk) {
+                if (row.student == null) {
+                    report.add(row, row.reason);
+                    continue;
+                }
+                Integer first = seen.putIfAbsent(row.student.getStudentId(), row.line);
+                if (first != null) report.add(row, "学号与第 " + first + " 行重复");
+                else valid.add(row);
+            }
+            if (valid.isEmpty()) return 0;
+
+            Set<String> existing = existingIds(conn, valid);
+            List<Row> fresh = new ArrayList<>(valid.size());
+            for (Row row : valid) {
+                if (existing.contains(row.student.getStudentId())) report.add(row, "学号已存在");
+                else fresh.add(row);
+            }
+            if (fresh.isEmpty()) return 0;
+
+            String sql = "INSERT INTO students (student_id, name, age, score) VALUES (?, ?, ?, ?)";
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                try {
+                    for (Row row : fresh) {
+                        bind(pstmt, row.student);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                    conn.commit();
+                    for (Row row : fresh) {
+                        StudentCache.invalidate(row.student.getStudentId());
+                        StudentStats.add(row.student);
+                    }
+                    return fresh.size();
+                } catch (SQLException e) {
+                    pstmt.clearBatch();
+                    conn.rollback();
+                    if (!isDuplicate(e)) throw e;
+                }
+
+                List<Row> inserted = new ArrayList<>(fresh.size());
+                for (Row row : fresh) {
+                    bind(pstmt, row.student);
+                    try {
+                        pstmt.executeUpdate();
+                        inserted.add(row);
+                    } catch (SQLException e) {
+                        if (!isDuplicate(e)) {
+                            conn.rollback();
+                            throw e;
+                        }
+                        report.add(row, "学号已存在");
+                    }
+                }
+                conn.commit();
+                for (Row row : inserted) {
+                    StudentCache.invalidate(row.student.getStudentId());
+                    StudentStats.add(row.student);
+                }
+                return inserted.size();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+
+        private static void bind(PreparedStatement pstmt, Student student) throws SQLException {
+            pstmt.setString(1, student.getStudentId());
+            pstmt.setString(2, student.getName());
+            pstmt.setInt(3, student.getAge());
+            pstmt.setInt(4, student.getScore());
+        }
+
+        // 用固定 LOOKUP_SIZE 个参数的 IN 查询找出本块中数据库已有的学号；不足一组时用最后一个学号补齐，
+        // 语句始终只有一种形状，不会因块大小不同占满连接池的语句缓存
+        private static Set<String> existingIds(Connection conn, List<Row> rows) throws SQLException {
+            Set<String> existing = new HashSet<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(LOOKUP_SQL)) {
+                for (int from = 0; from < rows.size(); from += LOOKUP_SIZE) {
+                    for (int i = 0; i < LOOKUP_SIZE; i++) {
+                        pstmt.setString(i + 1, rows.get(Math.min(from + i, rows.size() - 1)).student.getStudentId());
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) existing.add(rs.getString(1));
+                    }
+                }
+            }
+            return existing;
+        }
+
+        private static boolean isDuplicate(SQLException e) {
+            for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+                if (cur.getErrorCode() == DUPLICATE_KEY) return true;
+                if (cur.getCause() instanceof SQLException cause && cause.getErrorCode() == DUPLICATE_KEY) return true;
+            }
+            return false;
+        }
+    }
+
+    // 内存列式快照：把学生表按列读入基本类型数组，分析查询用紧凑的循环完成，不再交给 SQL。
+    // 年龄、成绩为 int[]；姓名字典编码（不同姓名只保存一份，每行存编号）；学号各不相同，直接按行保存。
+    // 循环体不含分支（条件用符号位算出 0/-1 掩码），JIT 可以自动向量化，百万行的聚合和筛选只需几毫秒。
+    private static class ColumnarSnapshot {
+        private static final int[] GRADE_FLOORS = {90, 80, 70, 60};
+        private static final String[] GRADE_NAMES = {"优秀", "良好", "中等", "及格", "不及格"};
+        // 按年龄分组时数组的最大长度，防止异常数据让数组过大
+        private static final int MAX_AGE_SPAN = 1 << 16;
+
+        private static ColumnarSnapshot current;
+
+        final int size;
+        final int[] ages;
+        final int[] scores;
+        final int[] nameCodes;
+        final String[] names;       // 姓名字典，下标即编号
+        final String[] studentIds;
+        final int minAge, maxAge;   // 快照中出现的年龄范围，空快照时 min > max
+        final long loadedAt = System.currentTimeMillis();
+
+        private ColumnarSnapshot(int size, int[] ages, int[] scores, int[] nameCodes, String[] names, String[] studentIds) {
+            this.size = size;
+            this.ages = ages;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int age : ages) {
+                min = Math.min(min, age);
+                max = Math.max(max, age);
+            }
+            this.minAge = min;
+            this.maxAge = max;
+            this.scores = scores;
+            this.nameCodes = nameCodes;
+            this.names = names;
+            this.studentIds = studentIds;
+        }
+
+        // 逐列追加行，数组按需倍增，最后截到实际长度
+        private static class Builder {
+            int size = 0;
+            int[] ages = new int[1024], scores = new int[1024], nameCodes = new int[1024];
+            String[] studentIds = new String[1024];
+            final Map<String, Integer> dictionary = new HashMap<>();
+
+            void add(String studentId, String name, int age, int score) {
+                if (size == ages.length) {
+                    int capacity = size * 2;
+                    ages = java.util.Arrays.copyOf(ages, capacity);
+                    scores = java.util.Arrays.copyOf(scores, capacity);
+                    nameCodes = java.util.Arrays.copyOf(nameCodes, capacity);
+                    studentIds = java.util.Arrays.copyOf(studentIds, capacity);
+                }
+                ages[size] = age;
+                scores[size] = score;
+                nameCodes[size] = dictionary.computeIfAbsent(name, k -> dictionary.size());
+                studentIds[size] = studentId;
+                size++;
+            }
+
+            ColumnarSnapshot build() {
+                String[] names = new String[dictionary.size()];
+                for (Map.Entry<String, Integer> e : dictionary.entrySet()) names[e.getValue()] = e.getKey();
+                return new ColumnarSnapshot(size, java.util.Arrays.copyOf(ages, size), java.util.Arrays.copyOf(scores, size),
+                        java.util.Arrays.copyOf(nameCodes, size), names, java.util.Arrays.copyOf(studentIds, size));
+            }
+        }
+
+        // 从数据库流式读取整张表建立快照
+        static ColumnarSnapshot load() throws SQLException {
+            Builder builder = new Builder();
+            try (Connection conn = getConnection();
+                 Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(Integer.MIN_VALUE); // MySQL 驱动逐行流式读取
+                try (ResultSet rs = stmt.executeQuery("SELECT student_id, name, age, score FROM students ORDER BY id")) {
+                    while (rs.next()) builder.add(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getInt(4));
+                }
+            }
+            return builder.build();
+        }
+
+        // 生成随机数据，用于在没有数据库时测量分析速度
+        static ColumnarSnapshot synthetic(int n) {
+            java.util.Random random = new java.util.Random(42);
+            String[] surnames = {"张", "王", "李", "赵", "刘", "陈", "杨", "黄", "周", "吴"};
+            Builder builder = new Builder();
+            for (int i = 0; i < n; i++) {
+                String name = surnames[random.nextInt(surnames.length)] + (char) ('一' + random.nextInt(200));
+                builder.add("S" + (100_000_000 + i), name, 16 + random.nextInt(10), random.nextInt(101));
+            }
+            return builder.build();
+        }
+
+        // 一次遍历求人数、总分、最高分、最低分
+        long[] aggregate() {
+            long sum = 0;
+            int max = Integer.MIN_VALUE, min = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                int score = scores[i];
+                sum += score;
+                max = Math.max(max, score);
+                min = Math.min(min, score);
+            }
+            return new long[]{size, sum, max, min};
+        }
+
+        // 成绩 >= minScore 且年龄 < maxAge 的人数和总分：两个差值都为负时符号位为 1，右移得到 0/-1 掩码
+        long[] filter(int minScore, int maxAge) {
+            long count = 0, sum = 0;
+            for (int i = 0; i < size; i++) {
+                int mask = ((minScore - 1 - scores[i]) & (ages[i] - maxAge)) >> 31;
+                count -= mask;
+                sum += scores[i] & mask;
+            }
+            return new long[]{count, sum};
+        }
+
+        // 按年龄分组：人数和总分。范围先收窄到快照中实际出现的年龄，数组下标为年龄减去收窄后的下限，范围外的行不统计
+        long[][] groupByAge(int minAge, int maxAge) {
+            if (minAge > maxAge) throw new IllegalArgumentException("年龄范围无效：" + minAge + " ~ " + maxAge);
+            int low = Math.max(minAge, this.minAge), high = Math.min(maxAge, this.maxAge);
+            if (low > high) return new long[][]{new long[0], new long[0]};
+            long span = (long) high - low + 1;
+            if (span > MAX_AGE_SPAN) throw new IllegalArgumentException("年龄范围过大：" + low + " ~ " + high);
+            int width = (int) span;
+            long[] counts = new long[width], sums = new long[width];
+            for (int i = 0; i < size; i++) {
+                long slot = (long) ages[i] - low;
+                if (slot < 0 || slot >= width) continue;
+                counts[(int) slot]++;
+                sums[(int) slot] += scores[i];
+            }
+            return new long[][]{counts, sums};
+        }
+
+        // 按成绩等级分组：每个等级下限比较一次，累加得到等级下标（0 为优秀）
+        long[] groupByGrade() {
+            long[] counts = new long[GRADE_NAMES.length];
+            for (int i = 0; i < size; i++) {
+                int score = scores[i], grade = 0;
+                for (int floor : GRADE_FLOORS) grade += (score - floor) >>> 31;
+                counts[grade]++;
+            }
+            return counts;
+        }
+
+        int[] ageRange() {
+            return new int[]{minAge, maxAge};
+        }
+
+        // 输出分析结果和每项耗时
+        void report(int minScore, int maxAge) {
+            if (size == 0) {
+                System.out.println("数据库中暂无学生信息！");
+                return;
+            }
+            long start = System.nanoTime();
+            long[] all = aggregate();
+            long aggregateNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] matched = filter(minScore, maxAge);
+            long filterNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] range = ageRange();
+            long[][] byAge;
+            try {
+                byAge = groupByAge(range[0], range[1]);
+            } catch (IllegalArgumentException e) {
+                // 年龄列有异常数据时跳过按年龄分组，其余分析照常输出
+                System.out.println(e.getMessage() + "，跳过按年龄分组");
+                byAge = new long[][]{new long[0], new long[0]};
+            }
+            long ageNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] byGrade = groupByGrade();
+            long gradeNanos = System.nanoTime() - start;
+
+            System.out.println("快照行数：" + size + "\t不同姓名：" + names.length + "\t加载于："
+                    + new java.sql.Timestamp(loadedAt).toString().substring(0, 19));
+            System.out.printf("总数：%d\t平均分：%.2f\t最高分：%d\t最低分：%d\t（%.3fms）\n",
+                    all[0], (double) all[1] / all[0], all[2], all[3], aggregateNanos / 1e6);
+            System.out.printf("成绩 >= %d 且年龄 < %d：%d 人，平均分：%.2f\t（%.3fms）\n", minScore, maxAge,
+                    matched[0], matched[0] == 0 ? 0.0 : (double) matched[1] / matched[0], filterNanos / 1e6);
+
+            System.out.printf("按年龄分组（%.3fms）：\n", ageNanos / 1e6);
+            for (int i = 0; i < byAge[0].length; i++) {
+                if (byAge[0][i] == 0) continue;
+                System.out.printf("  %d 岁\t%d 人\t平均分 %.2f\n", range[0] + i, byAge[0][i], (double) byAge[1][i] / byAge[0][i]);
+            }
+            System.out.printf("按等级分组（%.3fms）：\n", gradeNanos / 1e6);
+            for (int i = 0; i < byGrade.length; i++) {
+                System.out.printf("  %s\t%d 人\n", GRADE_NAMES[i], byGrade[i]);
+            }
+        }
+
+        // 交互式分析：第一次使用时建立快照，之后可选择重新加载
+        static void analyze(Scanner scanner) {
+            try {
+                if (current == null || getValidInt(scanner, "已有快照，是否重新加载？（1 是，0 否）：") == 1) {
+                    long start = System.currentTimeMillis();
+                    current = load();
+                    System.out.println("已加载 " + current.size + " 名学生，用时 " + (System.currentTimeMillis() - start) + "ms");
+                }
+            } catch (SQLException e) {
+                System.out.println("加载快照失败：" + e.getMessage());
+                return;
+            }
+            int minScore = getValidInt(scanner, "筛选条件 - 最低成绩：");
+            int maxAge = getValidInt(scanner, "筛选条件 - 年龄小于：");
+            current.report(minScore, maxAge);
+        }
+
+        // 命令行测速：java Sims analyze-bench [行数]，使用随机数据，不连接数据库
+        static void bench(int n) {
+            long start = System.currentTimeMillis();
+            ColumnarSnapshot snapshot = synthetic(n);
+            System.out.println("生成 " + n + " 行随机数据，用时 " + (System.currentTimeMillis() - start) + "ms");
+            // 先运行几轮让 JIT 编译循环，最后一轮的耗时才有代表性
+            for (int i = 0; i < 50; i++) {
+                snapshot.ageRange();
+                snapshot.aggregate();
+                snapshot.filter(90, 20);
+                snapshot.groupByAge(16, 25);
+                snapshot.groupByGrade();
+            }
+            snapshot.report(90, 20);
         }
     }
 
@@ -214,23 +1267,45 @@ public class Sims {
         System.out.println("3. 查找学生");
         System.out.println("4. 统计信息");
         System.out.println("5. 删除学生");
-        System.out.println("6. 退出系统");
+        System.out.println("6. 连接池与缓存状态");
+        System.out.println("7. 批量导入学生（CSV）");
+        System.out.println("8. 筛选/排序列表");
+        System.out.println("9. 内存列式分析");
+        System.out.println("10. 退出系统");
     }
 
-    // 删除学生
+    // 删除学生：同一事务中先锁定并读出年龄和成绩，删除后从统计中减去
     private static void deleteStudentFromDB(String studentId) {
-        String sql = "DELETE FROM students WHERE student_id = ?";
-
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        String selectSQL = "SELECT age, score FROM students WHERE student_id = ? FOR UPDATE";
+        String deleteSQL = "DELETE FROM students WHERE student_id = ?";
 
-            pstmt.setString(1, studentId);
-            int rowsAffected = pstmt.executeUpdate();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement select = conn.prepareStatement(selectSQL);
+                 PreparedStatement delete = conn.prepareStatement(deleteSQL)) {
+                select.setString(1, studentId);
+                int age, score;
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        System.out.println("未找到学号为 " + studentId + " 的学生！");
+                        return;
+                    }
+                    age = rs.getInt("age");
+                    score = rs.getInt("score");
+                }
 
-            if (rowsAffected > 0) {
+                delete.setString(1, studentId);
+                delete.executeUpdate();
+                conn.commit();
+                StudentCache.invalidate(studentId);
+                StudentStats.remove(age, score);
                 System.out.println("学号为 " + studentId + " 的学生信息已删除！");
-            } else {
-                System.out.println("未找到学号为 " + studentId + " 的学生！");
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             System.out.println("删除失败：" + e.getMessage());
@@ -238,6 +1313,12 @@ public class Sims {
     }
 
     public static void main(String[] args) {
+        // 列式分析测速不需要数据库
+        if (args.length >= 1 && args[0].equals("analyze-bench")) {
+            ColumnarSnapshot.bench(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+
         // 加载MySQL驱动
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
@@ -251,6 +1332,17 @@ public class Sims {
         // 初始化数据库
         initializeDatabase();
 
+        // 命令行批量导入：java Sims import 花名册.csv
+        if (args.length >= 2 && args[0].equals("import")) {
+            CsvImporter.importFile(args[1]);
+            ConnectionPool.shutdown();
+            return;
+        }
+
+        // 预先加载统计数据和常用学生，之后打开统计信息不再查询数据库
+        StudentStats.load();
+        StudentCache.prewarm();
+
         Scanner scanner = new Scanner(System.in);
 
         while (true) {
@@ -278,7 +1370,7 @@ public class Sims {
                     break;
 
                 case 4: // 统计信息
-                    showStatisticsFromDB();
+                    showStatistics();
                     break;
 
                 case 5: // 删除学生
@@ -286,7 +1378,26 @@ public class Sims {
                     deleteStudentFromDB(deleteId);
                     break;
 
-                case 6: // 退出系统
+                case 6: // 连接池与缓存状态
+                    ConnectionPool.printStats();
+                    StudentCache.printStats();
+                    break;
+
+                case 7: // 批量导入学生
+                    String csvPath = getValidString(scanner, "请输入CSV文件路径（列：学号,姓名,年龄,成绩）：");
+                    CsvImporter.importFile(csvPath);
+                    break;
+
+                case 8: // 筛选/排序列表
+                    filteredListing(scanner);
+                    break;
+
+                case 9: // 内存列式分析
+                    ColumnarSnapshot.analyze(scanner);
+                    break;
+
+                case 10: // 退出系统
+                    ConnectionPool.shutdown();
                     System.out.println("感谢使用，再见！");
                     scanner.close();
                     return;